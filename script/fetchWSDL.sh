@@ -0,0 +1,42 @@
+#Downloads the WSDL of the data services and the schemas it refers to (recursively) into
+#src/main/resources/wsdl, rewriting their references to these local copies, so that builds and
+#runs no longer need the network (the bundled-wsdl profile turns on when RefRof.wsdl exists).
+#Run it from the project root, with ${API_USERNAME} and ${API_PASSWORD} set; commit the result.
+set -e
+WSDL_URL="https://rof.api.dauphine.fr/ebx-dataservices/tables/pvRefRof/RefRof?WSDL"
+DIR="src/main/resources/wsdl"
+
+mkdir -p "${DIR}"
+
+#Maps a remote address to a local file name, such as RefRof_xsd_1.xsd.
+function local_name {
+	echo "$1" | sed -E -e 's|.*/||' -e 's|[^A-Za-z0-9._-]|_|g' -e '/\.(xsd|wsdl)$/!s|$|.xsd|'
+}
+
+#Downloads the given address to the given file, then its references, recursively.
+function fetch {
+	local url="$1"
+	local file="${DIR}/$2"
+	if [ -f "${file}" ]; then return; fi
+	echo "Fetching ${url}."
+	curl --fail --silent --show-error --user "${API_USERNAME}:${API_PASSWORD}" --output "${file}" "${url}"
+	local refs
+	#Schema imports and includes, and WSDL imports; not the address of the service.
+	refs=$(grep -o -E 'schemaLocation="[^"]+"|<([A-Za-z]+:)?import [^>]*location="[^"]+"' "${file}" \
+		| sed -E 's/.*[lL]ocation="([^"]*)"$/\1/' | sort -u)
+	for ref in ${refs}; do
+		local absolute="${ref}"
+		case "${ref}" in
+			http*) ;;
+			*) absolute="${url%/*}/${ref}" ;;
+		esac
+		local name
+		name=$(local_name "${ref}")
+		sed -i -e "s|\"${ref}\"|\"${name}\"|g" "${file}"
+		fetch "$(echo "${absolute}" | sed 's/&amp;/\&/g')" "${name}"
+	done
+}
+
+rm -f "${DIR}"/*.wsdl "${DIR}"/*.xsd
+fetch "${WSDL_URL}" "RefRof.wsdl"
+echo "Done, the WSDL is bundled in ${DIR}."
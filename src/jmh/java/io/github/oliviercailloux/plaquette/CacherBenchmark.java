@@ -0,0 +1,59 @@
+package io.github.oliviercailloux.plaquette;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Building the cache (with its indexes) and looking up the courses of every program and the
+ * teachers of every course.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class CacherBenchmark {
+  @Param({ "100", "10000", "100000" })
+  public int courses;
+
+  private SyntheticCatalog catalog;
+
+  private Cacher cache;
+
+  @Setup
+  public void setUp() {
+    catalog = SyntheticCatalog.withCourses(courses);
+    cache = catalog.toCacher();
+  }
+
+  @Benchmark
+  public Cacher construction() {
+    return catalog.toCacher();
+  }
+
+  @Benchmark
+  public void programCourses(Blackhole blackhole) {
+    for (String programId : cache.getPrograms().keySet()) {
+      blackhole.consume(cache.getProgramCourses(programId));
+    }
+  }
+
+  @Benchmark
+  public void courseTeachers(Blackhole blackhole) {
+    for (String courseId : cache.getCourses().keySet()) {
+      blackhole.consume(cache.getCourseTeachers(courseId));
+    }
+  }
+}
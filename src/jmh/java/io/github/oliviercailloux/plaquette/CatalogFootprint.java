@@ -0,0 +1,44 @@
+package io.github.oliviercailloux.plaquette;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Prints the heap retained by the catalog as fetched ({@link Cacher}) and by its compact form
+ * ({@link CompactCatalog}), for synthetic catalogs of increasing sizes.
+ * <p>
+ * Allocation rates are reported by the benchmarks (with the GC profiler); this measures what
+ * stays.
+ * </p>
+ */
+public class CatalogFootprint {
+  public static void main(String[] args) {
+    for (int courses : new int[] { 100, 10_000, 100_000 }) {
+      final long before = usedAfterGc();
+      SyntheticCatalog catalog = SyntheticCatalog.withCourses(courses);
+      Cacher cache = catalog.toCacher();
+      final long withCache = usedAfterGc();
+      final CompactCatalog compact = CompactCatalog.of(cache);
+      catalog = null;
+      cache = null;
+      final long withCompact = usedAfterGc();
+      System.out.printf("%d courses: Cacher (with its entities) %d KiB, CompactCatalog %d KiB.%n",
+          courses, (withCache - before) / 1024, (withCompact - before) / 1024);
+      /* Keeps the compact catalog alive until measured. */
+      if (compact.getCourses().size() != courses) {
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  private static long usedAfterGc() {
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; ++i) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private CatalogFootprint() {
+  }
+}
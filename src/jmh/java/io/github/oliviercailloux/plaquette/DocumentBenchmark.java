@@ -0,0 +1,88 @@
+package io.github.oliviercailloux.plaquette;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+
+/**
+ * Writing the summary table and the course sections of a whole catalog, and converting the course
+ * texts, as the builders do (using {@link ProgramDocument}, which, unlike {@link M1AltBuilder},
+ * accepts any catalog).
+ * <p>
+ * The course sections are written with a fresh text converter for each invocation, so that its
+ * memo only helps with the texts repeated within the catalog.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class DocumentBenchmark {
+  @Param({ "100", "10000", "100000" })
+  public int courses;
+
+  @Param({ "asciidoc", "docbook" })
+  public String backend;
+
+  private Cacher cache;
+
+  private ProgramDocument document;
+
+  @Setup
+  public void setUp() {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(courses);
+    cache = catalog.toCacher();
+    document = ProgramDocument.of(cache, catalog.getRootProgramId());
+  }
+
+  @Benchmark
+  public String writeSummary() {
+    final DocumentEmitter writer =
+        backend.equals("asciidoc") ? AsciidocEmitter.create() : DocBookEmitter.create();
+    document.writeSummary(writer);
+    return writer.getContent();
+  }
+
+  @Benchmark
+  public String writeCourses() {
+    final DocumentEmitter writer = backend.equals("asciidoc")
+        ? AsciidocEmitter.using(HtmlToAsciidoc.create())
+        : DocBookEmitter.create();
+    for (Course course : cache.getCourses().values()) {
+      document.writeCourse(writer, course, 4);
+    }
+    return writer.getContent();
+  }
+
+  private static String description(Course course) {
+    return course.getCourseDescription().getValue().getFr().getValue();
+  }
+
+  @Benchmark
+  public void getTextLegacy(Blackhole blackhole) {
+    for (Course course : cache.getCourses().values()) {
+      blackhole.consume(LegacyHtmlToAsciidoc.getText(description(course)));
+    }
+  }
+
+  @Benchmark
+  public void getText(Blackhole blackhole) {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    for (Course course : cache.getCourses().values()) {
+      blackhole.consume(converter.convert(description(course)));
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Converts the texts of a synthetic catalog, where a given proportion of the texts are shared by
+ * several courses, with the legacy conversion and with {@link HtmlToAsciidoc}, fresh (thus
+ * benefiting from the memo only for the texts repeated within the catalog) or warm.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HtmlToAsciidocBenchmark {
+  @Param({ "1000" })
+  public int texts;
+
+  @Param({ "10" })
+  public int timesShared;
+
+  private ImmutableList<String> catalog;
+
+  private HtmlToAsciidoc warm;
+
+  @Setup
+  public void setUp() {
+    catalog = SyntheticTexts.texts(texts, texts / timesShared);
+    warm = HtmlToAsciidoc.create();
+    catalog.forEach(warm::convert);
+  }
+
+  @Benchmark
+  public void legacy(Blackhole blackhole) {
+    for (String html : catalog) {
+      blackhole.consume(LegacyHtmlToAsciidoc.getText(html));
+    }
+  }
+
+  @Benchmark
+  public void onePassFresh(Blackhole blackhole) {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    for (String html : catalog) {
+      blackhole.consume(converter.convert(html));
+    }
+  }
+
+  @Benchmark
+  public void onePassWarm(Blackhole blackhole) {
+    for (String html : catalog) {
+      blackhole.consume(warm.convert(html));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Verify;
+import io.github.oliviercailloux.publish.AsciidocWriter;
+import java.util.List;
+import org.jsoup.Jsoup;
+import org.jsoup.helper.W3CDom;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * The conversion that {@link HtmlToAsciidoc} replaces, as it was in {@code M1AltBuilder}, kept for
+ * comparison.
+ */
+class LegacyHtmlToAsciidoc {
+  static String getText(String htmlText) {
+    final Document parsed = Jsoup.parse(htmlText);
+    final List<Node> children = parsed.body().childNodes();
+    return getText(children);
+  }
+
+  private static String getText(List<Node> children) {
+    final StringBuilder textBuilder = new StringBuilder();
+    for (Node node : children) {
+      final String text = getText(node);
+      textBuilder.append(text);
+    }
+    final String text = textBuilder.toString();
+    return text;
+  }
+
+  private static String getText(Node node) {
+    final String text;
+    if (node instanceof TextNode) {
+      text = AsciidocWriter.quote(((TextNode) node).text().strip());
+    } else if (node instanceof Element) {
+      final Element element = (Element) node;
+      final String tag = element.normalName();
+      if (tag.equals("br")) {
+        text = "\n\n";
+      } else if (tag.equals("strong")) {
+        text = "*" + getText(element.childNodes()) + "*";
+      } else if (tag.equals("p")) {
+        text = "\n\n" + getText(element.childNodes());
+      } else if (tag.equals("ul")) {
+        text = "\n\n" + getText(element.childNodes());
+      } else if (tag.equals("li")) {
+        final List<Node> liChildren = element.childNodes();
+        if (liChildren.size() == 1) {
+          final Node liChild = liChildren.get(0);
+          Verify.verify(liChild instanceof TextNode);
+          final String inner = ((TextNode) liChild).text();
+          Verify.verify(!inner.isBlank());
+          text = "- " + inner + "\n";
+        } else {
+          String outerHtml = node.outerHtml();
+          Document asDoc = Jsoup.parseBodyFragment(outerHtml);
+          String asString = W3CDom.convert(asDoc).getDocumentElement().getTextContent();
+          text = "- " + asString.replace("\n", "");
+        }
+      } else {
+        throw new IllegalArgumentException(node.outerHtml());
+      }
+    } else {
+      throw new IllegalArgumentException(node.outerHtml());
+    }
+    return text;
+  }
+
+  private LegacyHtmlToAsciidoc() {
+  }
+}
@@ -0,0 +1,63 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The work that the querier does locally around each lookup by ids: building the predicates, and
+ * putting the entities received back in the requested order.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuerierBenchmark {
+  @Param({ "100", "10000", "100000" })
+  public int courses;
+
+  private ImmutableSet<String> ids;
+
+  private ImmutableList<String> shuffled;
+
+  @Setup
+  public void setUp() {
+    final ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    for (int i = 0; i < courses; ++i) {
+      builder.add("FRUAI0750736TPRCOURSE" + i);
+    }
+    ids = builder.build();
+    final List<String> toShuffle = new ArrayList<>(ids);
+    Collections.shuffle(toShuffle, new Random(0));
+    shuffled = ImmutableList.copyOf(toShuffle);
+  }
+
+  @Benchmark
+  public ImmutableList<String> toOrPredicates() {
+    return Querier.toOrPredicates("courseID", ids, Querier.DEFAULT_MAX_IDS_PER_CHUNK,
+        Querier.DEFAULT_MAX_PREDICATE_LENGTH);
+  }
+
+  @Benchmark
+  public ImmutableList<String> reorder() {
+    return Querier.reorder(ids, shuffled, Function.identity());
+  }
+}
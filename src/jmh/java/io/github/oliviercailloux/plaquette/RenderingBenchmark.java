@@ -0,0 +1,77 @@
+package io.github.oliviercailloux.plaquette;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The stages of rendering, with a warm engine: AsciiDoc to DocBook, validation, DocBook to PDF.
+ * <p>
+ * Creating the engine compiles the FO stylesheet, which imports the DocBook stylesheets from the
+ * network.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderingBenchmark {
+  @Param({ "100" })
+  public int courses;
+
+  private RenderingEngine engine;
+
+  private String adoc;
+
+  private String docBook;
+
+  private Path pdf;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(courses);
+    final DocumentEmitter writer = AsciidocEmitter.create();
+    ProgramDocument.of(catalog.toCacher(), catalog.getRootProgramId()).write(writer);
+    adoc = writer.getContent();
+    engine = RenderingEngine.create();
+    docBook = engine.toDocBook(adoc);
+    pdf = Files.createTempFile("benchmark", ".pdf");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    engine.close();
+    Files.deleteIfExists(pdf);
+  }
+
+  @Benchmark
+  public String toDocBook() {
+    return engine.toDocBook(adoc);
+  }
+
+  @Benchmark
+  public void validate() {
+    engine.validate(docBook);
+  }
+
+  @Benchmark
+  public void toPdf() {
+    engine.toPdf(docBook, pdf);
+  }
+}
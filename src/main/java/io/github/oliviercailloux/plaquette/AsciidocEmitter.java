@@ -0,0 +1,104 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.publish.AsciidocWriter;
+
+/**
+ * Writes AsciiDoc, to be converted to DocBook by Asciidoctor.
+ */
+public class AsciidocEmitter implements DocumentEmitter {
+  private static final boolean WRITE_HTML = false;
+
+  public static AsciidocEmitter create() {
+    return new AsciidocEmitter(HtmlToAsciidoc.shared());
+  }
+
+  static AsciidocEmitter using(HtmlToAsciidoc converter) {
+    return new AsciidocEmitter(converter);
+  }
+
+  private final AsciidocWriter writer;
+
+  private final HtmlToAsciidoc converter;
+
+  private AsciidocEmitter(HtmlToAsciidoc converter) {
+    writer = new AsciidocWriter();
+    this.converter = converter;
+  }
+
+  @Override
+  public void title(String title) {
+    writer.h1(title);
+    writer.addAttribute("lang", "fr");
+    writer.addAttribute("toc", "preamble");
+    writer.eol();
+  }
+
+  @Override
+  public void heading(int level, String title) {
+    switch (level) {
+      case 2:
+        writer.h2(title);
+        break;
+      case 3:
+        writer.h3(title);
+        break;
+      case 4:
+        writer.h4(title);
+        break;
+      case 5:
+        writer.h5(title);
+        break;
+      default:
+        throw new IllegalArgumentException("Level: " + level);
+    }
+  }
+
+  @Override
+  public void paragraph(String text) {
+    writer.paragraph(text);
+  }
+
+  @Override
+  public void paragraphWithLink(String before, String url, String linkText, String after) {
+    writer.paragraph(before + url + "[" + linkText + "]" + after);
+  }
+
+  @Override
+  public void eol() {
+    writer.eol();
+  }
+
+  @Override
+  public void table(String columnWidths, ImmutableList<String> headers,
+      ImmutableList<ImmutableList<String>> rows) {
+    writer.table(columnWidths, headers, rows);
+  }
+
+  @Override
+  public void htmlSection(String title, String html) {
+    if (WRITE_HTML) {
+      writer.h5(title + " html");
+      writer.verbatim(html);
+      writer.eol();
+    }
+    writer.h5(title);
+    writer.append(converter.convert(html));
+    writer.eol();
+  }
+
+  @Override
+  public void append(String fragment) {
+    writer.append(fragment);
+  }
+
+  @Override
+  public AsciidocEmitter newFragment() {
+    return new AsciidocEmitter(converter);
+  }
+
+  @Override
+  public String getContent() {
+    return writer.getContent();
+  }
+}
@@ -0,0 +1,206 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ebx.ebx_dataservices.StandardException;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * Generates the plaquette of every program of some mentions, in one run.
+ * <p>
+ * All the programs of the mentions are fetched first into a single {@link Cacher}, so that the
+ * courses and teachers that several programs share are fetched once. Then, one document per
+ * top-level program (a program of the mentions that no other program of the mentions contains) is
+ * written and rendered, on a bounded pool, sharing a single {@link RenderingEngine}.
+ * </p>
+ * <p>
+ * Configured by system properties: {@value #MENTIONS_PROPERTY} (comma-separated mention ids,
+ * overridden by the command line arguments if any), {@value #OUTPUT_PROPERTY} (the output
+ * directory, {@code plaquettes} by default), {@value #PARALLELISM_PROPERTY} (the number of
+ * documents rendered at once, the number of processors by default), and
+ * {@value M1AltBuilder#BACKEND_PROPERTY}.
+ * </p>
+ */
+public class BatchBuilder {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchBuilder.class);
+
+  public static final String MENTIONS_PROPERTY = "plaquette.batch.mentions";
+
+  public static final String OUTPUT_PROPERTY = "plaquette.batch.output";
+
+  public static final String PARALLELISM_PROPERTY = "plaquette.batch.parallelism";
+
+  public static void main(String[] args) throws Exception {
+    AuthenticatorHelper.setDefaultAuthenticator();
+
+    final ImmutableSet<String> mentions = args.length == 0
+        ? ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+            .split(System.getProperty(MENTIONS_PROPERTY, M1AltBuilder.MENTION_ID)))
+        : ImmutableSet.copyOf(Arrays.asList(args));
+    final Path output = Path.of(System.getProperty(OUTPUT_PROPERTY, "plaquettes"));
+    final int parallelism = Integer.parseInt(System.getProperty(PARALLELISM_PROPERTY,
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    final String backend = System.getProperty(M1AltBuilder.BACKEND_PROPERTY, "asciidoc");
+
+    final Querier querier = Querier.instance();
+    final BatchBuilder builder = new BatchBuilder(querier, backend, parallelism);
+    final ImmutableMap<String, Path> written = builder.proceed(mentions, output);
+    LOGGER.info("Wrote {}.", written);
+    LOGGER.info("Query cache: {}.", querier.getCacheStats());
+    Metrics.get().write();
+  }
+
+  private final Querier querier;
+
+  private final String backend;
+
+  private final int parallelism;
+
+  public BatchBuilder(Querier querier, String backend, int parallelism) {
+    checkArgument(parallelism >= 1);
+    this.querier = querier;
+    this.backend = backend;
+    this.parallelism = parallelism;
+    /* Fails early on an unknown backend. */
+    M1AltBuilder.newEmitter(backend);
+  }
+
+  /**
+   * Fetches all the programs of the given mentions, with their sub-programs, courses and teachers.
+   * Meanwhile, converts the texts of the courses already received to AsciiDoc in the background,
+   * when that is the backend.
+   */
+  public Cacher fetch(Set<String> mentionIds) throws StandardException {
+    final ImmutableSet.Builder<String> programIdsBuilder = ImmutableSet.builder();
+    for (String mentionId : mentionIds) {
+      final ImmutableList<Program> programs =
+          querier.getPrograms("refMention/mentionID='" + mentionId + "'");
+      LOGGER.info("Found {} programs for mention {}.", programs.size(), mentionId);
+      programs.stream().map(Program::getProgramID).forEach(programIdsBuilder::add);
+    }
+    if (!backend.equals("asciidoc")) {
+      return Cacher.cacheConcurrently(querier, programIdsBuilder.build(), parallelism);
+    }
+    final ExecutorService converting = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("converting-%d").setDaemon(true).build());
+    try {
+      final HtmlToAsciidoc converter = HtmlToAsciidoc.shared();
+      return Cacher.cacheConcurrently(querier, programIdsBuilder.build(), parallelism,
+          c -> converting.execute(() -> converter.warm(c)));
+    } finally {
+      /* Conversions still queued are not needed, they will happen when writing. */
+      converting.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns the programs of the given mentions that no other program in the cache contains, in
+   * the order of {@link Cacher#getPrograms()}.
+   */
+  public static ImmutableList<String> getTopLevelPrograms(Cacher cache, Set<String> mentionIds) {
+    final ImmutableSet<String> contained = cache.getPrograms().values().stream()
+        .flatMap(p -> p.getProgramStructure().getValue().getRefProgram().stream())
+        .collect(ImmutableSet.toImmutableSet());
+    return mentionIds.stream().flatMap(m -> cache.getMentionPrograms(m).keySet().stream())
+        .distinct().filter(id -> !contained.contains(id))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Writes one PDF per top-level program of the given mentions in the given directory, named after
+   * the program id.
+   *
+   * @return the files written, indexed by program id
+   */
+  public ImmutableMap<String, Path> proceed(Set<String> mentionIds, Path outputDirectory)
+      throws StandardException, IOException {
+    final Cacher cache = fetch(mentionIds);
+    final ImmutableList<String> programIds = getTopLevelPrograms(cache, mentionIds);
+    LOGGER.info("Rendering {} programs.", programIds.size());
+    Files.createDirectories(outputDirectory);
+
+    try (RenderingEngine engine = RenderingEngine.create()) {
+      /* The tasks use the engine: they must all have ended before it closes. */
+      final ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+          new ThreadFactoryBuilder().setNameFormat("batch-%d").setDaemon(true).build());
+      final Map<String, Future<Path>> futures = new LinkedHashMap<>();
+      try {
+        for (String programId : programIds) {
+          final Path pdf = outputDirectory.resolve(programId + ".pdf");
+          futures.put(programId, executor.submit(() -> render(engine, cache, programId, pdf)));
+        }
+        final ImmutableMap.Builder<String, Path> written = ImmutableMap.builder();
+        for (Map.Entry<String, Future<Path>> entry : futures.entrySet()) {
+          written.put(entry.getKey(), getRendered(entry.getValue()));
+        }
+        return written.build();
+      } finally {
+        futures.values().forEach(f -> f.cancel(true));
+        executor.shutdownNow();
+        try {
+          if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOGGER.warn("Some renderings are still running after cancellation.");
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Waits for a rendering, rethrowing its failure as it was raised.
+   */
+  private static Path getRendered(Future<Path> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while rendering.", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      Throwables.throwIfInstanceOf(cause, IOException.class);
+      Throwables.throwIfUnchecked(cause);
+      throw new VerifyException(cause);
+    }
+  }
+
+  private Path render(RenderingEngine engine, Cacher cache, String programId, Path pdf)
+      throws IOException {
+    final DocumentEmitter writer = M1AltBuilder.newEmitter(backend);
+    ProgramDocument.of(cache, programId).write(writer);
+    final String content = writer.getContent();
+    if (writer instanceof AsciidocEmitter) {
+      try (Writer adoc = Files.newBufferedWriter(pdf.resolveSibling(programId + ".adoc"))) {
+        adoc.write(content);
+      }
+      engine.render(content, pdf);
+    } else {
+      engine.renderDocBook(content, pdf);
+    }
+    return pdf;
+  }
+}
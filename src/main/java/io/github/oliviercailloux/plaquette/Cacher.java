@@ -7,14 +7,23 @@ import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import ebx.ebx_dataservices.StandardException;
 import jakarta.xml.bind.JAXBElement;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,11 +37,15 @@ public class Cacher {
   private static final Logger LOGGER = LoggerFactory.getLogger(Cacher.class);
 
   public static Cacher cache(Querier querier, Set<String> programIds) throws StandardException {
+    final Metrics.Timer timer = Metrics.get().timer("cacher_crawl_seconds", "mode", "sequential");
+    final long start = timer.start();
+    int depth = 0;
     final ImmutableSet.Builder<Program> builder = ImmutableSet.builder();
     final Set<String> programIdsSeen = new LinkedHashSet<>();
     ImmutableSet<String> nextIds = ImmutableSet.copyOf(programIds);
     do {
       final ImmutableList<Program> programs = querier.getPrograms(nextIds);
+      ++depth;
       builder.addAll(programs);
       programs.stream().map(p -> p.getProgramID()).forEach(programIdsSeen::add);
       LOGGER.debug("Program ids seen: {}.", programIdsSeen);
@@ -61,6 +74,98 @@ public class Cacher {
     final ImmutableSet<String> teacherIds = courses.stream()
         .flatMap(c -> getTeacherRefs(c).stream()).collect(ImmutableSet.toImmutableSet());
     final ImmutableList<Person> teachers = querier.getPersons(teacherIds);
+    timer.stop(start);
+    recordCrawl("sequential", depth, depth + 2, programs.size(), courses.size(), teachers.size());
+    return new Cacher(programs, courses, teachers);
+  }
+
+  /**
+   * @param roundTrips the number of requests to the querier (each of which may be split into
+   *        several requests to the service)
+   */
+  static void recordCrawl(String mode, int depth, int roundTrips, int programs, int courses,
+      int teachers) {
+    final Metrics metrics = Metrics.get();
+    metrics.gauge("cacher_crawl_depth", "mode", mode).set(depth);
+    metrics.counter("cacher_round_trips_total", "mode", mode).add(roundTrips);
+    metrics.counter("cacher_entities_total", "mode", mode, "kind", "program").add(programs);
+    metrics.counter("cacher_entities_total", "mode", mode, "kind", "course").add(courses);
+    metrics.counter("cacher_entities_total", "mode", mode, "kind", "person").add(teachers);
+  }
+
+  /**
+   * Fetches the same data as {@link #cache(Querier, Set)}, but without waiting for one round trip
+   * to end before starting the next one: the courses of each batch of programs are requested as
+   * soon as that batch arrives, the teachers of each batch of courses likewise, and the
+   * sub-programs of each program are crawled independently of its siblings.
+   * <p>
+   * At most {@code parallelism} requests are outstanding at any given time. If one of them fails,
+   * the crawl stops, the others are cancelled, and the failure is rethrown. The threads used do
+   * not survive this call.
+   * </p>
+   */
+  public static Cacher cacheConcurrently(Querier querier, Set<String> programIds, int parallelism)
+      throws StandardException {
+    return cacheConcurrently(querier, programIds, parallelism, c -> {
+    });
+  }
+
+  /**
+   * As {@link #cacheConcurrently(Querier, Set, int)}, and calls the given listener with each
+   * course as soon as it arrives, thus, while other requests are still in progress. The listener
+   * should return quickly, as the crawl waits for it; it may hand over the course to some other
+   * thread.
+   */
+  public static Cacher cacheConcurrently(Querier querier, Set<String> programIds, int parallelism,
+      Consumer<? super Course> courseListener) throws StandardException {
+    checkArgument(parallelism >= 1);
+    final ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder().setNameFormat("cacher-%d").setDaemon(true).build());
+    final Metrics.Timer timer = Metrics.get().timer("cacher_crawl_seconds", "mode", "pipelined");
+    final long start = timer.start();
+    try {
+      return new PipelinedCrawl(querier, executor, courseListener).crawl(programIds);
+    } finally {
+      timer.stop(start);
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOGGER.warn("Some requests are still running after cancellation.");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Orders the given entities as {@link #cache(Querier, Set)} does: programs level by level
+   * starting from the requested ones, then courses and teachers in order of first reference.
+   */
+  static Cacher ordered(Set<String> programIds, Map<String, Program> programs,
+      Map<String, Course> courses, Map<String, Person> teachers) {
+    final Set<String> programIdsOrdered = new LinkedHashSet<>();
+    Set<String> level = ImmutableSet.copyOf(programIds);
+    while (!level.isEmpty()) {
+      final ImmutableSet<String> found = level.stream().filter(programs::containsKey)
+          .filter(id -> !programIdsOrdered.contains(id)).collect(ImmutableSet.toImmutableSet());
+      programIdsOrdered.addAll(found);
+      level = found.stream().map(programs::get)
+          .flatMap(p -> p.getProgramStructure().getValue().getRefProgram().stream())
+          .collect(ImmutableSet.toImmutableSet());
+    }
+    final ImmutableSet<Program> programsOrdered =
+        programIdsOrdered.stream().map(programs::get).collect(ImmutableSet.toImmutableSet());
+    final ImmutableList<Course> coursesOrdered = programsOrdered.stream()
+        .flatMap(p -> p.getProgramStructure().getValue().getRefCourse().stream()).distinct()
+        .filter(courses::containsKey).map(courses::get).collect(ImmutableList.toImmutableList());
+    final ImmutableList<Person> teachersOrdered = coursesOrdered.stream()
+        .flatMap(c -> getTeacherRefs(c).stream()).distinct().filter(teachers::containsKey)
+        .map(teachers::get).collect(ImmutableList.toImmutableList());
+    return new Cacher(programsOrdered, coursesOrdered, teachersOrdered);
+  }
+
+  static Cacher of(Set<Program> programs, List<Course> courses, List<Person> teachers) {
     return new Cacher(programs, courses, teachers);
   }
 
@@ -73,14 +178,34 @@ public class Cacher {
     return element == null ? Optional.empty() : Optional.of(element.getValue());
   }
 
-  private static List<String> getTeacherRefs(Course course) {
+  static List<String> getTeacherRefs(Course course) {
     return valueOpt(course.getContacts()).map(Contacts::getRefPerson).orElse(ImmutableList.of());
   }
 
+  /**
+   * Indexes the given values under each of their keys, keeping the order of the values.
+   *
+   * @param keys given the id of a value, returns its keys
+   */
+  private static <V> ImmutableMap<String, ImmutableBiMap<String, V>>
+      index(Map<String, V> values, Function<String, Collection<String>> keys) {
+    final Map<String, ImmutableBiMap.Builder<String, V>> builders = new LinkedHashMap<>();
+    values.forEach((id, v) -> keys.apply(id)
+        .forEach(k -> builders.computeIfAbsent(k, k2 -> ImmutableBiMap.builder()).put(id, v)));
+    return builders.entrySet().stream()
+        .collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, e -> e.getValue().build()));
+  }
+
   private final ImmutableBiMap<String, Program> programs;
   private final ImmutableBiMap<String, Course> courses;
   private final ImmutableBiMap<String, Person> teachers;
 
+  private final ImmutableMap<String, ImmutableBiMap<String, Course>> programCourses;
+  private final ImmutableMap<String, ImmutableBiMap<String, Program>> coursePrograms;
+  private final ImmutableMap<String, ImmutableBiMap<String, Person>> courseTeachers;
+  private final ImmutableMap<String, ImmutableBiMap<String, Course>> teacherCourses;
+  private final ImmutableMap<String, ImmutableBiMap<String, Program>> mentionPrograms;
+
   private Cacher(Set<Program> programs, List<Course> courses, List<Person> teachers) {
     this.programs =
         programs.stream().collect(ImmutableBiMap.toImmutableBiMap(Program::getProgramID, p -> p));
@@ -88,6 +213,19 @@ public class Cacher {
         courses.stream().collect(ImmutableBiMap.toImmutableBiMap(Course::getCourseID, c -> c));
     this.teachers =
         teachers.stream().collect(ImmutableBiMap.toImmutableBiMap(Person::getPersonID, p -> p));
+
+    final ImmutableSetMultimap<String, String> courseRefs = this.programs.values().stream()
+        .collect(ImmutableSetMultimap.flatteningToImmutableSetMultimap(Program::getProgramID,
+            p -> p.getProgramStructure().getValue().getRefCourse().stream()));
+    final ImmutableSetMultimap<String, String> teacherRefs = this.courses.values().stream()
+        .collect(ImmutableSetMultimap.flatteningToImmutableSetMultimap(Course::getCourseID,
+            c -> getTeacherRefs(c).stream()));
+    programCourses = index(this.courses, courseRefs.inverse()::get);
+    coursePrograms = index(this.programs, courseRefs::get);
+    courseTeachers = index(this.teachers, teacherRefs.inverse()::get);
+    teacherCourses = index(this.courses, teacherRefs::get);
+    mentionPrograms = index(this.programs, id -> valueOpt(this.programs.get(id).getRefMention())
+        .stream().collect(ImmutableSet.toImmutableSet()));
   }
 
   public ImmutableMap<String, Program> getPrograms() {
@@ -103,10 +241,20 @@ public class Cacher {
     return courses;
   }
 
+  /**
+   * @return the courses that the given program refers to, in the order of {@link #getCourses()}.
+   */
   public ImmutableMap<String, Course> getProgramCourses(String programId) {
-    final List<String> courseRefs =
-        getProgram(programId).getProgramStructure().getValue().getRefCourse();
-    return ImmutableMap.copyOf(Maps.filterKeys(courses, courseRefs::contains));
+    checkArgument(programs.containsKey(programId));
+    return programCourses.getOrDefault(programId, ImmutableBiMap.of());
+  }
+
+  /**
+   * @return the programs that refer to the given course, in the order of {@link #getPrograms()}.
+   */
+  public ImmutableMap<String, Program> getCoursePrograms(String courseId) {
+    checkArgument(courses.containsKey(courseId));
+    return coursePrograms.getOrDefault(courseId, ImmutableBiMap.of());
   }
 
   public Course getCourse(String courseId) {
@@ -118,9 +266,28 @@ public class Cacher {
     return teachers;
   }
 
+  /**
+   * @return the teachers of the given course, in the order of {@link #getTeachers()}.
+   */
   public ImmutableBiMap<String, Person> getCourseTeachers(String courseId) {
-    final List<String> teacherRefs = getTeacherRefs(getCourse(courseId));
-    return ImmutableBiMap.copyOf(Maps.filterKeys(teachers, teacherRefs::contains));
+    checkArgument(courses.containsKey(courseId));
+    return courseTeachers.getOrDefault(courseId, ImmutableBiMap.of());
+  }
+
+  /**
+   * @return the courses taught by the given teacher, in the order of {@link #getCourses()}.
+   */
+  public ImmutableMap<String, Course> getTeacherCourses(String teacherId) {
+    checkArgument(teachers.containsKey(teacherId));
+    return teacherCourses.getOrDefault(teacherId, ImmutableBiMap.of());
+  }
+
+  /**
+   * @return the programs that belong to the given mention, in the order of {@link #getPrograms()};
+   *         empty if none (in particular, if the mention is unknown).
+   */
+  public ImmutableMap<String, Program> getMentionPrograms(String mentionId) {
+    return mentionPrograms.getOrDefault(mentionId, ImmutableBiMap.of());
   }
 
   public Person getTeacher(String teacherId) {
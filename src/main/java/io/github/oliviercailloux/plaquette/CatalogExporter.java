@@ -0,0 +1,434 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Sets;
+import de.siegmar.fastcsv.writer.CsvWriter;
+import ebx.ebx_dataservices.StandardException;
+import jakarta.xml.bind.JAXBElement;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * Writes courses to CSV or JSON Lines as they are fetched, one chunk (or page) at a time, retaining
+ * no course once written.
+ * <p>
+ * Teachers are fetched (for each chunk) only if a selected column needs them. Exporting the courses
+ * of a program tree retains the (few) programs of the tree and the ids of their courses, but not
+ * the courses themselves.
+ * </p>
+ * <p>
+ * The entities may also be read from a {@link Cacher}, such as one loaded from a
+ * {@link CatalogSnapshot}, in which case nothing is requested.
+ * </p>
+ */
+public class CatalogExporter {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CatalogExporter.class);
+
+  public static enum Column {
+    ID("ID"), TITLE("Title"), ECTS("ECTS"), VOLUME("Volume"), LANGUAGE("Language"),
+    PROGRAM_PATH("Program"), TEACHERS("Teachers");
+
+    private final String header;
+
+    private Column(String header) {
+      this.header = header;
+    }
+
+    public String getHeader() {
+      return header;
+    }
+  }
+
+  public static enum Format {
+    CSV, JSON_LINES
+  }
+
+  /**
+   * Where an exporter reads the entities from.
+   */
+  static interface Source {
+    /**
+     * @return the entities found, in the order of the given ids
+     */
+    ImmutableList<Program> getPrograms(Set<String> programIds) throws StandardException;
+
+    ImmutableList<Course> getCourses(Set<String> courseIds) throws StandardException;
+
+    ImmutableList<Person> getPersons(Set<String> personIds) throws StandardException;
+
+    /**
+     * @throws UnsupportedOperationException if this source can’t evaluate predicates
+     */
+    Iterator<Course> getCoursesPaged(String predicate, int pageSize);
+  }
+
+  static Source from(Querier querier) {
+    return new Source() {
+      @Override
+      public ImmutableList<Program> getPrograms(Set<String> programIds)
+          throws StandardException {
+        return querier.getPrograms(programIds);
+      }
+
+      @Override
+      public ImmutableList<Course> getCourses(Set<String> courseIds) throws StandardException {
+        return querier.getCourses(courseIds);
+      }
+
+      @Override
+      public ImmutableList<Person> getPersons(Set<String> personIds) throws StandardException {
+        return querier.getPersons(personIds);
+      }
+
+      @Override
+      public Iterator<Course> getCoursesPaged(String predicate, int pageSize) {
+        return querier.getCoursesPaged(predicate, pageSize);
+      }
+    };
+  }
+
+  static Source from(Cacher cache) {
+    return new Source() {
+      @Override
+      public ImmutableList<Program> getPrograms(Set<String> programIds) {
+        return programIds.stream().filter(cache.getPrograms()::containsKey)
+            .map(cache::getProgram).collect(ImmutableList.toImmutableList());
+      }
+
+      @Override
+      public ImmutableList<Course> getCourses(Set<String> courseIds) {
+        return courseIds.stream().filter(cache.getCourses()::containsKey).map(cache::getCourse)
+            .collect(ImmutableList.toImmutableList());
+      }
+
+      @Override
+      public ImmutableList<Person> getPersons(Set<String> personIds) {
+        return personIds.stream().filter(cache.getTeachers()::containsKey)
+            .map(cache::getTeacher).collect(ImmutableList.toImmutableList());
+      }
+
+      @Override
+      public Iterator<Course> getCoursesPaged(String predicate, int pageSize) {
+        throw new UnsupportedOperationException("A cache can’t evaluate predicates.");
+      }
+    };
+  }
+
+  /**
+   * Exports the courses of the programs given as arguments, or, if none, the courses matching the
+   * predicate given by the system property {@code plaquette.export.predicate} (all by default).
+   * The system properties {@code plaquette.export.columns} (column names separated by commas,
+   * {@code TITLE,ECTS} by default), {@code plaquette.export.format} ({@code CSV} or
+   * {@code JSON_LINES}) and {@code plaquette.export.file} configure the output.
+   */
+  public static void main(String[] args) throws Exception {
+    AuthenticatorHelper.setDefaultAuthenticator();
+
+    final ImmutableList<Column> columns = Splitter.on(',').trimResults().omitEmptyStrings()
+        .splitToStream(System.getProperty("plaquette.export.columns", "TITLE,ECTS"))
+        .map(Column::valueOf).collect(ImmutableList.toImmutableList());
+    final Format format = Format.valueOf(System.getProperty("plaquette.export.format", "CSV"));
+    final Path output = Path.of(System.getProperty("plaquette.export.file",
+        format == Format.CSV ? "out.csv" : "out.jsonl"));
+    final CatalogExporter exporter =
+        using(Querier.builder().cacheSize(0).build(), columns, format);
+    if (args.length == 0) {
+      exporter.exportMatching(System.getProperty("plaquette.export.predicate", ""), output);
+    } else {
+      exporter.exportPrograms(ImmutableSet.copyOf(args), output);
+    }
+    Metrics.get().write();
+  }
+
+  /**
+   * @param querier preferably built with a {@link Querier.Builder#cacheSize(long) cache size} of
+   *        zero, as an export reads each entity once and would otherwise evict what the cache
+   *        keeps for other lookups
+   */
+  public static CatalogExporter using(Querier querier, List<Column> columns, Format format) {
+    return new CatalogExporter(from(querier), columns, format, Querier.DEFAULT_MAX_IDS_PER_CHUNK);
+  }
+
+  /**
+   * Returns an exporter that reads the given cache only, thus, exports the programs it contains
+   * and can’t {@link #exportMatching(String, Path) export by predicate}.
+   */
+  public static CatalogExporter using(Cacher cache, List<Column> columns, Format format) {
+    return new CatalogExporter(from(cache), columns, format, Querier.DEFAULT_MAX_IDS_PER_CHUNK);
+  }
+
+  /**
+   * Returns the given and family names that are present, separated by a space.
+   */
+  private static String name(Person person) {
+    return Stream.of(valueOpt(person.getGivenName()), valueOpt(person.getFamilyName()))
+        .flatMap(Optional::stream).collect(Collectors.joining(" "));
+  }
+
+  private static <T> Optional<T> valueOpt(JAXBElement<T> element) {
+    return element == null ? Optional.empty() : Optional.ofNullable(element.getValue());
+  }
+
+  static String toJsonString(String s) {
+    final StringBuilder builder = new StringBuilder(s.length() + 2);
+    builder.append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      final char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    builder.append('"');
+    return builder.toString();
+  }
+
+  /**
+   * Receives the rows, one at a time.
+   */
+  private static interface RowSink extends AutoCloseable {
+    void write(List<String> values) throws IOException;
+
+    @Override
+    void close() throws IOException;
+  }
+
+  private final Source source;
+  private final ImmutableList<Column> columns;
+  private final Format format;
+  private final int chunkSize;
+
+  CatalogExporter(Source source, List<Column> columns, Format format, int chunkSize) {
+    checkArgument(!columns.isEmpty());
+    checkArgument(chunkSize >= 1);
+    this.source = source;
+    this.columns = ImmutableList.copyOf(columns);
+    this.format = format;
+    this.chunkSize = chunkSize;
+  }
+
+  private RowSink open(Path output) throws IOException {
+    final BufferedWriter writer = Files.newBufferedWriter(output);
+    switch (format) {
+      case CSV: {
+        final CsvWriter csv = CsvWriter.builder().build(writer);
+        csv.writeRecord(columns.stream().map(Column::getHeader).collect(Collectors.toList()));
+        return new RowSink() {
+          @Override
+          public void write(List<String> values) {
+            csv.writeRecord(values);
+          }
+
+          @Override
+          public void close() throws IOException {
+            csv.close();
+          }
+        };
+      }
+      case JSON_LINES:
+        return new RowSink() {
+          @Override
+          public void write(List<String> values) throws IOException {
+            writeJsonLine(writer, values);
+          }
+
+          @Override
+          public void close() throws IOException {
+            writer.close();
+          }
+        };
+      default:
+        throw new AssertionError(format);
+    }
+  }
+
+  private void writeJsonLine(Writer writer, List<String> values) throws IOException {
+    writer.write('{');
+    for (int i = 0; i < columns.size(); ++i) {
+      if (i != 0) {
+        writer.write(", ");
+      }
+      writer.write(toJsonString(columns.get(i).getHeader()));
+      writer.write(": ");
+      writer.write(toJsonString(values.get(i)));
+    }
+    writer.write("}\n");
+  }
+
+  /**
+   * Writes the courses of the given programs and of their sub-programs, recursively, in the order
+   * of {@link Cacher#getCourses()}.
+   *
+   * @return the number of courses written
+   */
+  public int exportPrograms(Set<String> programIds, Path output)
+      throws StandardException, IOException {
+    final Map<String, String> coursePaths = getCoursePaths(programIds);
+    int written = 0;
+    try (RowSink sink = open(output)) {
+      for (List<String> chunk : Iterables.partition(coursePaths.keySet(), chunkSize)) {
+        final ImmutableList<Course> courses = source.getCourses(ImmutableSet.copyOf(chunk));
+        written += writeCourses(sink, courses, coursePaths);
+      }
+    }
+    LOGGER.info("Exported {} courses to {}.", written, output);
+    return written;
+  }
+
+  /**
+   * Writes the courses matching the given predicate, fetched page by page. The program path is not
+   * available in this mode.
+   *
+   * @param predicate may be empty, meaning all courses
+   * @return the number of courses written
+   * @throws UncheckedStandardException if a query fails
+   * @throws UnsupportedOperationException if this exporter reads from a cache
+   */
+  public int exportMatching(String predicate, Path output) throws StandardException, IOException {
+    checkArgument(!columns.contains(Column.PROGRAM_PATH));
+    final Iterator<Course> courses = source.getCoursesPaged(predicate, chunkSize * 10);
+    int written = 0;
+    try (RowSink sink = open(output)) {
+      final Iterator<List<Course>> chunks = Iterators.partition(courses, chunkSize);
+      while (chunks.hasNext()) {
+        written += writeCourses(sink, chunks.next(), ImmutableMap.of());
+      }
+    }
+    LOGGER.info("Exported {} courses to {}.", written, output);
+    return written;
+  }
+
+  /**
+   * Crawls the program trees, breadth first, as {@link Cacher} does.
+   *
+   * @return the ids of the courses of the trees, in order of first reference, each associated to
+   *         the path of the first program that refers to it.
+   */
+  private Map<String, String> getCoursePaths(Set<String> programIds) throws StandardException {
+    final Map<String, String> programPaths = new LinkedHashMap<>();
+    final Map<String, String> coursePaths = new LinkedHashMap<>();
+    final Set<String> seen = new LinkedHashSet<>();
+    Map<String, String> level = new LinkedHashMap<>();
+    for (String programId : programIds) {
+      level.put(programId, "");
+    }
+    while (!level.isEmpty()) {
+      final ImmutableSet<String> toFetch =
+          Sets.difference(level.keySet(), seen).immutableCopy();
+      seen.addAll(toFetch);
+      final ImmutableList<Program> programs = source.getPrograms(toFetch);
+      final Map<String, String> next = new LinkedHashMap<>();
+      for (Program program : programs) {
+        final String parentPath = level.get(program.getProgramID());
+        final String path = parentPath.isEmpty() ? ProgramDocument.name(program)
+            : parentPath + " / " + ProgramDocument.name(program);
+        programPaths.put(program.getProgramID(), path);
+        program.getProgramStructure().getValue().getRefProgram()
+            .forEach(s -> next.putIfAbsent(s, path));
+      }
+      for (Program program : programs) {
+        final String path = programPaths.get(program.getProgramID());
+        program.getProgramStructure().getValue().getRefCourse()
+            .forEach(c -> coursePaths.putIfAbsent(c, path));
+      }
+      next.keySet().removeAll(seen);
+      level = next;
+    }
+    return coursePaths;
+  }
+
+  private int writeCourses(RowSink sink, List<Course> courses, Map<String, String> coursePaths)
+      throws StandardException, IOException {
+    final ImmutableMap<String, Person> teachers;
+    if (columns.contains(Column.TEACHERS)) {
+      final ImmutableSet<String> teacherIds = courses.stream()
+          .flatMap(c -> Cacher.getTeacherRefs(c).stream()).collect(ImmutableSet.toImmutableSet());
+      teachers = source.getPersons(teacherIds).stream()
+          .collect(ImmutableMap.toImmutableMap(Person::getPersonID, p -> p));
+    } else {
+      teachers = ImmutableMap.of();
+    }
+    for (Course course : courses) {
+      final ImmutableList<String> values = columns.stream()
+          .map(c -> value(c, course, coursePaths, teachers))
+          .collect(ImmutableList.toImmutableList());
+      try {
+        sink.write(values);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
+    return courses.size();
+  }
+
+  private String value(Column column, Course course, Map<String, String> coursePaths,
+      Map<String, Person> teachers) {
+    switch (column) {
+      case ID:
+        return course.getCourseID();
+      case TITLE:
+        return ProgramDocument.name(course);
+      case ECTS:
+        return valueOpt(course.getEcts()).orElse("");
+      case VOLUME:
+        return valueOpt(course.getVolume()).orElse("");
+      case LANGUAGE:
+        return Joiner.on(", ").join(course.getTeachingLang());
+      case PROGRAM_PATH:
+        return coursePaths.getOrDefault(course.getCourseID(), "");
+      case TEACHERS:
+        return Cacher.getTeacherRefs(course).stream().filter(teachers::containsKey)
+            .map(teachers::get)
+            .map(CatalogExporter::name)
+            .collect(Collectors.joining("; "));
+      default:
+        throw new AssertionError(column);
+    }
+  }
+}
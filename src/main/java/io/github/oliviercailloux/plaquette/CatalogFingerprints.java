@@ -0,0 +1,103 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * Content hashes of the entities held by a {@link Cacher}, together with a hash of the code that
+ * generates documents from them, permitting to detect what changed since a previous run.
+ * <p>
+ * Stored as text, one entry per line: the key ({@code generator}, or the kind and id of the entity,
+ * such as {@code course:FRUAI0750736TCOENA3AMIA-100-S6L1C1}), a tab, and the hash in hexadecimal.
+ * </p>
+ */
+public class CatalogFingerprints {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CatalogFingerprints.class);
+
+  private static final String GENERATOR = "generator";
+
+  public static CatalogFingerprints of(Cacher cache, HashCode generator) {
+    final ImmutableMap.Builder<String, HashCode> builder = ImmutableMap.builder();
+    builder.put(GENERATOR, generator);
+    cache.getPrograms().forEach((id, p) -> builder.put("program:" + id, hash(Program.class, p)));
+    cache.getCourses().forEach((id, c) -> builder.put("course:" + id, hash(Course.class, c)));
+    cache.getTeachers().forEach((id, p) -> builder.put("person:" + id, hash(Person.class, p)));
+    return new CatalogFingerprints(builder.build());
+  }
+
+  public static Optional<CatalogFingerprints> read(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    final ImmutableMap.Builder<String, HashCode> builder = ImmutableMap.builder();
+    for (String line : Files.readAllLines(file)) {
+      final List<String> parts = Splitter.on('\t').splitToList(line);
+      checkArgument(parts.size() == 2, line);
+      builder.put(parts.get(0), HashCode.fromString(parts.get(1)));
+    }
+    return Optional.of(new CatalogFingerprints(builder.build()));
+  }
+
+  private static <T> HashCode hash(Class<T> type, T entity) {
+    return Hashing.sha256().hashBytes(EntityCodec.toBytes(type, entity));
+  }
+
+  private final ImmutableMap<String, HashCode> hashes;
+
+  private CatalogFingerprints(Map<String, HashCode> hashes) {
+    this.hashes = ImmutableMap.copyOf(hashes);
+    checkArgument(this.hashes.containsKey(GENERATOR));
+  }
+
+  public HashCode getGenerator() {
+    return hashes.get(GENERATOR);
+  }
+
+  public HashCode getCourse(String courseId) {
+    return get("course:" + courseId);
+  }
+
+  public HashCode getPerson(String personId) {
+    return get("person:" + personId);
+  }
+
+  private HashCode get(String key) {
+    checkArgument(hashes.containsKey(key), key);
+    return hashes.get(key);
+  }
+
+  /**
+   * @return the keys that are new, gone or whose hash differs, compared to the given ones; empty
+   *         iff nothing changed.
+   */
+  public ImmutableSet<String> changedSince(CatalogFingerprints previous) {
+    return Sets.union(hashes.keySet(), previous.hashes.keySet()).stream()
+        .filter(k -> !Objects.equals(hashes.get(k), previous.hashes.get(k)))
+        .collect(ImmutableSet.toImmutableSet());
+  }
+
+  public void write(Path file) throws IOException {
+    Files.writeString(file, hashes.entrySet().stream().map(e -> e.getKey() + "\t" + e.getValue())
+        .collect(Collectors.joining("\n")));
+  }
+}
@@ -0,0 +1,248 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import ebx.ebx_dataservices.StandardException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * A local copy of the data held by a {@link Cacher}, permitting to start without querying the
+ * service.
+ * <p>
+ * The file starts with a fixed-size header (magic number, format version, creation time, CRC32 of
+ * the payload, payload length), followed by the deflated payload: the requested program ids, then
+ * the programs, courses and teachers in their XML form. A file that is unreadable, of another
+ * version, whose checksum does not match, or whose content cannot be decoded is ignored (and
+ * overwritten by the next fetch).
+ * </p>
+ */
+public class CatalogSnapshot {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CatalogSnapshot.class);
+
+  private static final int MAGIC = 0x504c5153;
+
+  private static final int VERSION = 1;
+
+  private static final int HEADER_LENGTH = Integer.BYTES * 3 + Long.BYTES * 2;
+
+  /**
+   * Reads the system properties {@code plaquette.snapshot.file} (defaults to the given file),
+   * {@code plaquette.snapshot.maxAge} (an ISO-8601 duration, defaults to zero, meaning that the
+   * snapshot is only used in offline mode) and {@code plaquette.snapshot.offline} (defaults to
+   * false).
+   */
+  public static CatalogSnapshot fromSystemProperties(Path defaultFile) {
+    final String fileProperty = System.getProperty("plaquette.snapshot.file");
+    final Path file = fileProperty == null ? defaultFile : Path.of(fileProperty);
+    final Duration maxAge =
+        Duration.parse(System.getProperty("plaquette.snapshot.maxAge", Duration.ZERO.toString()));
+    final boolean offline = Boolean.getBoolean("plaquette.snapshot.offline");
+    return at(file, maxAge, offline);
+  }
+
+  /**
+   * @param maxAge snapshots older than this are fetched again, except in offline mode
+   * @param offline iff {@code true}, the service is never queried: a snapshot must exist (however
+   *        old).
+   */
+  public static CatalogSnapshot at(Path file, Duration maxAge, boolean offline) {
+    return new CatalogSnapshot(file, maxAge, offline);
+  }
+
+  private final Path file;
+  private final Duration maxAge;
+  private final boolean offline;
+
+  private CatalogSnapshot(Path file, Duration maxAge, boolean offline) {
+    this.file = file;
+    checkArgument(!maxAge.isNegative());
+    this.maxAge = maxAge;
+    this.offline = offline;
+  }
+
+  /**
+   * @return {@code true} iff the service must not be queried
+   */
+  public boolean isOffline() {
+    return offline;
+  }
+
+  /**
+   * Returns the snapshot content if it is usable for these program ids, otherwise fetches the data
+   * using {@link Cacher#cache(Querier, Set)} and saves it as the new snapshot.
+   *
+   * @param querier queried only when fetching
+   * @throws IllegalStateException iff in offline mode and no snapshot is usable
+   */
+  public Cacher load(Supplier<Querier> querier, Set<String> programIds)
+      throws StandardException, IOException {
+    final Optional<Cacher> warm = read(programIds);
+    if (warm.isPresent()) {
+      LOGGER.info("Using snapshot {}.", file);
+      return warm.get();
+    }
+    if (offline) {
+      throw new IllegalStateException("No usable snapshot at " + file + " in offline mode.");
+    }
+    final Cacher cache = Cacher.cache(querier.get(), programIds);
+    write(programIds, cache);
+    return cache;
+  }
+
+  public Optional<Cacher> read(Set<String> programIds) throws IOException {
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        InputStream rawIn = new BufferedInputStream(Channels.newInputStream(channel))) {
+      if (channel.size() < HEADER_LENGTH) {
+        LOGGER.warn("Ignoring truncated snapshot {}.", file);
+        return Optional.empty();
+      }
+      /* Does not buffer, thus, leaves the payload in the raw stream. */
+      final DataInputStream header = new DataInputStream(rawIn);
+      final int magic = header.readInt();
+      final int version = header.readInt();
+      final Instant creation = Instant.ofEpochMilli(header.readLong());
+      final long checksum = header.readLong();
+      final int length = header.readInt();
+      if (magic != MAGIC || version != VERSION || length != channel.size() - HEADER_LENGTH) {
+        LOGGER.warn("Ignoring snapshot {} of unknown format.", file);
+        return Optional.empty();
+      }
+      if (!offline && creation.plus(maxAge).isBefore(Instant.now())) {
+        LOGGER.info("Ignoring snapshot {} created at {}.", file, creation);
+        return Optional.empty();
+      }
+      /*
+       * The payload is inflated and decoded as it is read, and its checksum verified at the end,
+       * before returning anything.
+       */
+      final CheckedInputStream checked = new CheckedInputStream(rawIn, new CRC32());
+      try {
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new InflaterInputStream(checked)));
+        final ImmutableList<String> snapshotProgramIds = readIds(in);
+        if (!snapshotProgramIds.equals(ImmutableList.copyOf(programIds))) {
+          LOGGER.info("Ignoring snapshot {} of programs {}.", file, snapshotProgramIds);
+          return Optional.empty();
+        }
+        final ImmutableList<Program> programs = readEntities(in, Program.class);
+        final ImmutableList<Course> courses = readEntities(in, Course.class);
+        final ImmutableList<Person> teachers = readEntities(in, Person.class);
+        checked.transferTo(OutputStream.nullOutputStream());
+        if (checked.getChecksum().getValue() != checksum) {
+          LOGGER.warn("Ignoring corrupted snapshot {}.", file);
+          return Optional.empty();
+        }
+        return Optional.of(Cacher.of(ImmutableSet.copyOf(programs), courses, teachers));
+      } catch (IOException | VerifyException e) {
+        /* Corrupted, or not written by this version of the code. */
+        LOGGER.warn("Ignoring unreadable snapshot {}.", file, e);
+        return Optional.empty();
+      }
+    }
+  }
+
+  public void write(Set<String> programIds, Cacher cache) throws IOException {
+    final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(payloadBytes))) {
+      out.writeInt(programIds.size());
+      for (String programId : programIds) {
+        out.writeUTF(programId);
+      }
+      writeEntities(out, Program.class, cache.getPrograms().values());
+      writeEntities(out, Course.class, cache.getCourses().values());
+      writeEntities(out, Person.class, cache.getTeachers().values());
+    }
+    final byte[] payload = payloadBytes.toByteArray();
+    final CRC32 crc = new CRC32();
+    crc.update(payload);
+
+    final Path absolute = file.toAbsolutePath();
+    final Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(),
+        ".tmp");
+    try (OutputStream rawOut = Files.newOutputStream(temp);
+        DataOutputStream out = new DataOutputStream(rawOut)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(Instant.now().toEpochMilli());
+      out.writeLong(crc.getValue());
+      out.writeInt(payload.length);
+      out.write(payload);
+    }
+    Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    LOGGER.info("Wrote snapshot {}.", file);
+  }
+
+  private static ImmutableList<String> readIds(DataInputStream in) throws IOException {
+    final int count = in.readInt();
+    final ImmutableList.Builder<String> ids = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      ids.add(in.readUTF());
+    }
+    return ids.build();
+  }
+
+  private static <T> ImmutableList<T> readEntities(DataInputStream in, Class<T> type)
+      throws IOException {
+    final int count = in.readInt();
+    final ImmutableList.Builder<T> entities = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      final int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Invalid entity length: " + length + ".");
+      }
+      /* Allocates as the bytes come, rather than trusting the length read. */
+      final byte[] bytes = in.readNBytes(length);
+      if (bytes.length != length) {
+        throw new EOFException("Truncated entity.");
+      }
+      entities.add(EntityCodec.fromBytes(type, bytes));
+    }
+    return entities.build();
+  }
+
+  private static <T> void writeEntities(DataOutputStream out, Class<T> type,
+      Collection<T> entities) throws IOException {
+    out.writeInt(entities.size());
+    for (T entity : entities) {
+      final byte[] bytes = EntityCodec.toBytes(type, entity);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import ebx.ebx_dataservices.StandardException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Lets concurrent lookups of a given kind of entities share the requests already under way,
+ * instead of each sending its own.
+ * <p>
+ * Requests are shared by predicate, and, for lookups by ids, by id: a lookup of a set of ids waits
+ * for the ids already being looked up by others, and requests only the remaining ones. A failure is
+ * seen by every lookup sharing the failed request. Nothing is kept once a request completes.
+ * </p>
+ *
+ * @param <T> the kind of entities
+ */
+class Coalescer<T> {
+  @FunctionalInterface
+  static interface PredicateQuery<T> {
+    ImmutableList<T> select(String predicate) throws StandardException;
+  }
+
+  @FunctionalInterface
+  static interface IdsQuery<T> {
+    /**
+     * @return the entities found (a subset of those searched for), in the same ordering.
+     */
+    ImmutableList<T> select(Set<String> ids) throws StandardException;
+  }
+
+  private final Function<T, String> getId;
+  private final ConcurrentMap<String, CompletableFuture<ImmutableList<T>>> byPredicate;
+  private final ConcurrentMap<String, CompletableFuture<Optional<T>>> byId;
+
+  Coalescer(Function<T, String> getId) {
+    this.getId = getId;
+    byPredicate = new ConcurrentHashMap<>();
+    byId = new ConcurrentHashMap<>();
+  }
+
+  ImmutableList<T> select(String predicate, PredicateQuery<T> query) throws StandardException {
+    final CompletableFuture<ImmutableList<T>> mine = new CompletableFuture<>();
+    final CompletableFuture<ImmutableList<T>> existing = byPredicate.putIfAbsent(predicate, mine);
+    if (existing != null) {
+      return StandardFutures.get(existing);
+    }
+    try {
+      final ImmutableList<T> selected = query.select(predicate);
+      mine.complete(selected);
+      return selected;
+    } catch (Throwable t) {
+      mine.completeExceptionally(t);
+      throw t;
+    } finally {
+      byPredicate.remove(predicate, mine);
+    }
+  }
+
+  /**
+   * @return the entities found (a subset of those searched for), in the same ordering.
+   */
+  ImmutableList<T> select(Set<String> ids, IdsQuery<T> query) throws StandardException {
+    final Map<String, CompletableFuture<Optional<T>>> all = new LinkedHashMap<>();
+    final Map<String, CompletableFuture<Optional<T>>> mine = new LinkedHashMap<>();
+    for (String id : ids) {
+      final CompletableFuture<Optional<T>> created = new CompletableFuture<>();
+      final CompletableFuture<Optional<T>> existing = byId.putIfAbsent(id, created);
+      if (existing == null) {
+        mine.put(id, created);
+        all.put(id, created);
+      } else {
+        all.put(id, existing);
+      }
+    }
+
+    if (!mine.isEmpty()) {
+      try {
+        final ImmutableMap<String, T> selected = query.select(ImmutableSet.copyOf(mine.keySet()))
+            .stream().collect(ImmutableMap.toImmutableMap(getId, Function.identity()));
+        mine.forEach((id, f) -> f.complete(Optional.ofNullable(selected.get(id))));
+      } catch (Throwable t) {
+        mine.values().forEach(f -> f.completeExceptionally(t));
+        throw t;
+      } finally {
+        mine.forEach((id, f) -> byId.remove(id, f));
+      }
+    }
+
+    final ImmutableList.Builder<T> found = ImmutableList.builder();
+    for (CompletableFuture<Optional<T>> future : all.values()) {
+      StandardFutures.get(future).ifPresent(found::add);
+    }
+    return found.build();
+  }
+}
@@ -0,0 +1,212 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import ebx.ebx_dataservices.StandardException;
+import jakarta.xml.bind.JAXBElement;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * The data of a {@link Cacher} reduced to the fields that the documents use, in immutable objects
+ * that share their equal strings and lists.
+ * <p>
+ * Only the French version of multilingual fields is kept. Identical texts (such as prerequisites
+ * shared by several courses) are stored once. Use {@link #fetch(Querier, Set, int)} to convert the
+ * entities as they arrive, so that their JAXB form is never held all at once; or convert a
+ * {@link Cacher} already held, which can then be discarded.
+ * </p>
+ */
+public class CompactCatalog {
+  public static enum Section {
+    RECOMMENDED_PREREQUISITES, FORMAL_PREREQUISITES, LEARNING_OBJECTIVES, DESCRIPTION, SYLLABUS,
+    FORM_OF_ASSESSMENT
+  }
+
+  public static record CompactProgram(String id, String nameFr, Optional<String> mentionId,
+      ImmutableList<String> subProgramIds, ImmutableList<String> courseIds) {
+  }
+
+  /**
+   * @param texts the HTML texts of the course, in French
+   */
+  public static record CompactCourse(String id, String nameFr, Optional<String> volume,
+      Optional<String> ects, ImmutableList<String> teachingLangs, ImmutableList<String> teacherIds,
+      ImmutableMap<Section, String> texts) {
+  }
+
+  public static record CompactPerson(String id, Optional<String> givenName,
+      Optional<String> familyName) {
+  }
+
+  public static CompactCatalog of(Cacher cache) {
+    final Interning interning = new Interning();
+    final ImmutableMap<String, CompactProgram> programs = cache.getPrograms().values().stream()
+        .map(interning::program)
+        .collect(ImmutableMap.toImmutableMap(CompactProgram::id, Function.identity()));
+    final ImmutableMap<String, CompactCourse> courses = cache.getCourses().values().stream()
+        .map(interning::course)
+        .collect(ImmutableMap.toImmutableMap(CompactCourse::id, Function.identity()));
+    final ImmutableMap<String, CompactPerson> teachers = cache.getTeachers().values().stream()
+        .map(interning::person)
+        .collect(ImmutableMap.toImmutableMap(CompactPerson::id, Function.identity()));
+    return new CompactCatalog(programs, courses, teachers);
+  }
+
+  /**
+   * Fetches the same data as {@link Cacher#cache(Querier, Set)}, converting each batch of entities
+   * as soon as it arrives: only the JAXB objects of the current batch are retained, apart from
+   * those that the querier keeps in its query cache (build it with a cache size of zero for large
+   * catalogs).
+   *
+   * @param batchSize the maximal number of courses, or teachers, asked for at once, at least one
+   */
+  public static CompactCatalog fetch(Querier querier, Set<String> programIds, int batchSize)
+      throws StandardException {
+    checkArgument(batchSize >= 1);
+    final Interning interning = new Interning();
+    final Map<String, CompactProgram> programs = new LinkedHashMap<>();
+    ImmutableSet<String> level = ImmutableSet.copyOf(programIds);
+    while (!level.isEmpty()) {
+      final ImmutableList<CompactProgram> fetched = querier.getPrograms(level).stream()
+          .map(interning::program).collect(ImmutableList.toImmutableList());
+      fetched.forEach(p -> programs.put(p.id(), p));
+      level = fetched.stream().flatMap(p -> p.subProgramIds().stream())
+          .filter(id -> !programs.containsKey(id)).collect(ImmutableSet.toImmutableSet());
+    }
+
+    final ImmutableSet<String> courseIds = programs.values().stream()
+        .flatMap(p -> p.courseIds().stream()).collect(ImmutableSet.toImmutableSet());
+    final Map<String, CompactCourse> courses = new LinkedHashMap<>();
+    for (List<String> batch : Iterables.partition(courseIds, batchSize)) {
+      querier.getCourses(ImmutableSet.copyOf(batch)).stream().map(interning::course)
+          .forEach(c -> courses.put(c.id(), c));
+    }
+
+    final ImmutableSet<String> teacherIds = courseIds.stream().filter(courses::containsKey)
+        .flatMap(id -> courses.get(id).teacherIds().stream())
+        .collect(ImmutableSet.toImmutableSet());
+    final Map<String, CompactPerson> teachers = new LinkedHashMap<>();
+    for (List<String> batch : Iterables.partition(teacherIds, batchSize)) {
+      querier.getPersons(ImmutableSet.copyOf(batch)).stream().map(interning::person)
+          .forEach(t -> teachers.put(t.id(), t));
+    }
+    return new CompactCatalog(ImmutableMap.copyOf(programs), inOrder(courseIds, courses),
+        inOrder(teacherIds, teachers));
+  }
+
+  private static <T> ImmutableMap<String, T> inOrder(Set<String> ids, Map<String, T> found) {
+    return ids.stream().filter(found::containsKey)
+        .collect(ImmutableMap.toImmutableMap(Function.identity(), found::get));
+  }
+
+  private static class Interning {
+    private final Interner<String> strings = Interners.newStrongInterner();
+    private final Interner<ImmutableList<String>> lists = Interners.newStrongInterner();
+
+    private String intern(String s) {
+      return s == null ? null : strings.intern(s);
+    }
+
+    private ImmutableList<String> intern(List<String> l) {
+      return lists.intern(l.stream().map(this::intern).collect(ImmutableList.toImmutableList()));
+    }
+
+    private Optional<String> internValue(JAXBElement<String> element) {
+      return element == null ? Optional.empty() : Optional.ofNullable(intern(element.getValue()));
+    }
+
+    private <F> Optional<String> internFr(JAXBElement<F> element,
+        Function<F, JAXBElement<String>> toFr) {
+      return element == null ? Optional.empty() : internValue(toFr.apply(element.getValue()));
+    }
+
+    CompactProgram program(Program program) {
+      return new CompactProgram(intern(program.getProgramID()),
+          intern(program.getProgramName().getValue().getFr().getValue()),
+          internValue(program.getRefMention()),
+          intern(program.getProgramStructure().getValue().getRefProgram()),
+          intern(program.getProgramStructure().getValue().getRefCourse()));
+    }
+
+    CompactCourse course(Course course) {
+      final Map<Section, Optional<String>> texts = new EnumMap<>(Section.class);
+      texts.put(Section.RECOMMENDED_PREREQUISITES,
+          internFr(course.getRecommendedPrerequisites(), Course.RecommendedPrerequisites::getFr));
+      texts.put(Section.FORMAL_PREREQUISITES,
+          internFr(course.getFormalPrerequisites(), Course.FormalPrerequisites::getFr));
+      texts.put(Section.LEARNING_OBJECTIVES,
+          internFr(course.getLearningObjectives(), Course.LearningObjectives::getFr));
+      texts.put(Section.DESCRIPTION,
+          internFr(course.getCourseDescription(), Course.CourseDescription::getFr));
+      texts.put(Section.SYLLABUS, internFr(course.getSyllabus(), Course.Syllabus::getFr));
+      texts.put(Section.FORM_OF_ASSESSMENT,
+          internFr(course.getFormOfAssessment(), Course.FormOfAssessment::getFr));
+      final Map<Section, String> present = Maps.transformValues(
+          Maps.filterValues(texts, Optional::isPresent), Optional::get);
+      return new CompactCourse(intern(course.getCourseID()),
+          intern(course.getCourseName().getValue().getFr().getValue()),
+          internValue(course.getVolume()), internValue(course.getEcts()),
+          intern(course.getTeachingLang()), intern(Cacher.getTeacherRefs(course)),
+          Maps.immutableEnumMap(present));
+    }
+
+    CompactPerson person(Person person) {
+      return new CompactPerson(intern(person.getPersonID()), internValue(person.getGivenName()),
+          internValue(person.getFamilyName()));
+    }
+  }
+
+  private final ImmutableMap<String, CompactProgram> programs;
+  private final ImmutableMap<String, CompactCourse> courses;
+  private final ImmutableMap<String, CompactPerson> teachers;
+
+  private CompactCatalog(ImmutableMap<String, CompactProgram> programs,
+      ImmutableMap<String, CompactCourse> courses, ImmutableMap<String, CompactPerson> teachers) {
+    this.programs = programs;
+    this.courses = courses;
+    this.teachers = teachers;
+  }
+
+  public ImmutableMap<String, CompactProgram> getPrograms() {
+    return programs;
+  }
+
+  public CompactProgram getProgram(String programId) {
+    checkArgument(programs.containsKey(programId));
+    return programs.get(programId);
+  }
+
+  public ImmutableMap<String, CompactCourse> getCourses() {
+    return courses;
+  }
+
+  public CompactCourse getCourse(String courseId) {
+    checkArgument(courses.containsKey(courseId));
+    return courses.get(courseId);
+  }
+
+  public ImmutableMap<String, CompactPerson> getTeachers() {
+    return teachers;
+  }
+
+  public CompactPerson getTeacher(String teacherId) {
+    checkArgument(teachers.containsKey(teacherId));
+    return teachers.get(teacherId);
+  }
+}
@@ -0,0 +1,299 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * The on-disk state of a {@link Crawler}, in a directory of its own.
+ * <p>
+ * The entity log ({@code entities.log}) receives every batch of entities as it arrives, each
+ * record holding the kind of the entity and its XML form, followed by their checksum; it is only
+ * ever appended to, and forced to disk after each batch. When the log is next opened, it is
+ * truncated at the first record cut short or garbled by a crash (which fails its checksum).
+ * The frontier ({@code frontier}) holds the seeds of the crawl, the ids still to fetch and the ids
+ * found missing from the service (retried by the next run); it is rewritten as a whole (forced to
+ * disk, then atomically renamed) from time to time. As the frontier may lag behind the log, the
+ * crawler completes it from the references of the entities logged.
+ * </p>
+ */
+class CrawlCheckpoint implements Closeable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(CrawlCheckpoint.class);
+
+  private static final int MAGIC = 0x504c5146;
+
+  private static final int VERSION = 1;
+
+  static final String LOG_FILE = "entities.log";
+
+  static final String FRONTIER_FILE = "frontier";
+
+  enum Kind {
+    PROGRAM, COURSE, TEACHER
+  }
+
+  /**
+   * @param pending the ids to fetch, including those whose fetch had started
+   * @param missing the ids that the service did not return when asked for
+   */
+  static record Frontier(ImmutableSet<String> seeds, ImmutableSetMultimap<Kind, String> pending,
+      ImmutableSetMultimap<Kind, String> missing) {
+  }
+
+  /**
+   * Creates the directory if needed and reads its content, if any.
+   */
+  static CrawlCheckpoint open(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    final CrawlCheckpoint checkpoint = new CrawlCheckpoint(directory);
+    checkpoint.readLog();
+    checkpoint.frontier = checkpoint.readFrontier();
+    checkpoint.openLog();
+    return checkpoint;
+  }
+
+  private final Path directory;
+  private final Map<String, Program> programs;
+  private final Map<String, Course> courses;
+  private final Map<String, Person> teachers;
+  private Optional<Frontier> frontier;
+  private FileChannel logChannel;
+  private DataOutputStream log;
+
+  private CrawlCheckpoint(Path directory) {
+    this.directory = checkNotNull(directory);
+    programs = new LinkedHashMap<>();
+    courses = new LinkedHashMap<>();
+    teachers = new LinkedHashMap<>();
+    frontier = Optional.empty();
+    logChannel = null;
+    log = null;
+  }
+
+  /**
+   * Reads the records of the log up to the first one that is incomplete or fails its checksum,
+   * then truncates the log there.
+   */
+  private void readLog() throws IOException {
+    final Path file = directory.resolve(LOG_FILE);
+    if (!Files.exists(file)) {
+      return;
+    }
+    long complete = 0;
+    try (InputStream rawIn = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(rawIn))) {
+      while (true) {
+        final Optional<byte[]> record = readRecord(in);
+        if (record.isEmpty()) {
+          break;
+        }
+        final byte[] bytes = record.get();
+        final Kind kind = Kind.values()[bytes[0]];
+        final byte[] entity = Arrays.copyOfRange(bytes, 1, bytes.length);
+        switch (kind) {
+          case PROGRAM -> {
+            final Program program = EntityCodec.fromBytes(Program.class, entity);
+            programs.put(program.getProgramID(), program);
+          }
+          case COURSE -> {
+            final Course course = EntityCodec.fromBytes(Course.class, entity);
+            courses.put(course.getCourseID(), course);
+          }
+          case TEACHER -> {
+            final Person teacher = EntityCodec.fromBytes(Person.class, entity);
+            teachers.put(teacher.getPersonID(), teacher);
+          }
+        }
+        complete += Integer.BYTES + bytes.length + Long.BYTES;
+      }
+    }
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      if (channel.size() > complete) {
+        LOGGER.warn("Dropping the last {} bytes of {}, an incomplete or corrupted record.",
+            channel.size() - complete, file);
+        channel.truncate(complete);
+      }
+    }
+    LOGGER.info("Read {} programs, {} courses, {} teachers from {}.", programs.size(),
+        courses.size(), teachers.size(), file);
+  }
+
+  /**
+   * Reads a record: its length, its content (the kind of the entity, then its XML form) and the
+   * checksum of its content.
+   *
+   * @return empty iff the stream ends before the end of the record, or the record is invalid
+   */
+  private static Optional<byte[]> readRecord(DataInputStream in) throws IOException {
+    final byte[] bytes;
+    final long checksum;
+    try {
+      final int length = in.readInt();
+      if (length < 1) {
+        return Optional.empty();
+      }
+      /* Allocates as the bytes come, rather than trusting the length read. */
+      bytes = in.readNBytes(length);
+      if (bytes.length != length) {
+        return Optional.empty();
+      }
+      checksum = in.readLong();
+    } catch (EOFException e) {
+      return Optional.empty();
+    }
+    final CRC32 crc = new CRC32();
+    crc.update(bytes);
+    if (crc.getValue() != checksum || bytes[0] < 0 || bytes[0] >= Kind.values().length) {
+      return Optional.empty();
+    }
+    return Optional.of(bytes);
+  }
+
+  private void openLog() throws IOException {
+    logChannel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    log = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(logChannel)));
+  }
+
+  private Optional<Frontier> readFrontier() throws IOException {
+    final Path file = directory.resolve(FRONTIER_FILE);
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    try (InputStream rawIn = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(rawIn))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Unexpected format of " + file + ".");
+      }
+      final ImmutableSet.Builder<String> seeds = ImmutableSet.builder();
+      final int seedCount = in.readInt();
+      for (int i = 0; i < seedCount; ++i) {
+        seeds.add(in.readUTF());
+      }
+      return Optional.of(new Frontier(seeds.build(), readIds(in), readIds(in)));
+    }
+  }
+
+  private static ImmutableSetMultimap<Kind, String> readIds(DataInputStream in)
+      throws IOException {
+    final ImmutableSetMultimap.Builder<Kind, String> ids = ImmutableSetMultimap.builder();
+    final int count = in.readInt();
+    for (int i = 0; i < count; ++i) {
+      ids.put(Kind.values()[in.readUnsignedByte()], in.readUTF());
+    }
+    return ids.build();
+  }
+
+  private static void writeIds(DataOutputStream out, ImmutableSetMultimap<Kind, String> ids)
+      throws IOException {
+    out.writeInt(ids.size());
+    for (Map.Entry<Kind, String> entry : ids.entries()) {
+      out.writeByte(entry.getKey().ordinal());
+      out.writeUTF(entry.getValue());
+    }
+  }
+
+  /**
+   * @return the programs read from the log when opening, in order of first appearance
+   */
+  ImmutableMap<String, Program> getPrograms() {
+    return ImmutableMap.copyOf(programs);
+  }
+
+  ImmutableMap<String, Course> getCourses() {
+    return ImmutableMap.copyOf(courses);
+  }
+
+  ImmutableMap<String, Person> getTeachers() {
+    return ImmutableMap.copyOf(teachers);
+  }
+
+  /**
+   * @return the frontier read when opening, empty iff none had been written
+   */
+  Optional<Frontier> getFrontier() {
+    return frontier;
+  }
+
+  void appendPrograms(List<Program> fetched) throws IOException {
+    append(Kind.PROGRAM, Program.class, fetched);
+  }
+
+  void appendCourses(List<Course> fetched) throws IOException {
+    append(Kind.COURSE, Course.class, fetched);
+  }
+
+  void appendTeachers(List<Person> fetched) throws IOException {
+    append(Kind.TEACHER, Person.class, fetched);
+  }
+
+  private <T> void append(Kind kind, Class<T> type, List<T> entities) throws IOException {
+    for (T entity : entities) {
+      final byte[] bytes = EntityCodec.toBytes(type, entity);
+      final CRC32 crc = new CRC32();
+      crc.update(kind.ordinal());
+      crc.update(bytes);
+      log.writeInt(1 + bytes.length);
+      log.writeByte(kind.ordinal());
+      log.write(bytes);
+      log.writeLong(crc.getValue());
+    }
+    log.flush();
+    logChannel.force(false);
+  }
+
+  void writeFrontier(Frontier newFrontier) throws IOException {
+    final Path file = directory.resolve(FRONTIER_FILE).toAbsolutePath();
+    final Path temp = Files.createTempFile(file.getParent(), FRONTIER_FILE, ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(newFrontier.seeds().size());
+      for (String seed : newFrontier.seeds()) {
+        out.writeUTF(seed);
+      }
+      writeIds(out, newFrontier.pending());
+      writeIds(out, newFrontier.missing());
+      out.flush();
+      /* Otherwise, a crash could leave the renamed file without its content. */
+      channel.force(true);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    frontier = Optional.of(newFrontier);
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+}
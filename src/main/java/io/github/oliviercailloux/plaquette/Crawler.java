@@ -0,0 +1,477 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ebx.ebx_dataservices.StandardException;
+import io.github.oliviercailloux.plaquette.CrawlCheckpoint.Frontier;
+import io.github.oliviercailloux.plaquette.CrawlCheckpoint.Kind;
+import jakarta.xml.ws.WebServiceException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * Crawls program trees of any size, as {@link Cacher#cacheConcurrently(Querier, Set, int)} does,
+ * but politely and resumably.
+ * <p>
+ * Requests start at a bounded rate (a token bucket) with a bounded number of them outstanding.
+ * Each request asks for at most one batch of ids (by default, as many as the querier sends in
+ * one request to the service). A failed request is retried after a jittered, exponentially
+ * growing delay; when the attempts are exhausted, the crawl fails, but everything fetched so far
+ * is on disk (see {@link CrawlCheckpoint}) and a new crawl with the same checkpoint directory
+ * resumes where this one stopped.
+ * </p>
+ */
+public class Crawler {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(Crawler.class);
+
+  public static class Builder {
+    private final Querier querier;
+    private Path checkpointDirectory;
+    private double requestsPerSecond;
+    private int concurrency;
+    private int batchSize;
+    private int maxAttempts;
+    private Duration initialBackoff;
+    private Duration maxBackoff;
+    private Duration checkpointInterval;
+
+    private Builder(Querier querier) {
+      this.querier = checkNotNull(querier);
+      checkpointDirectory = Path.of("crawl");
+      requestsPerSecond = 2d;
+      concurrency = 2;
+      batchSize = Querier.DEFAULT_MAX_IDS_PER_CHUNK;
+      maxAttempts = 6;
+      initialBackoff = Duration.ofSeconds(1);
+      maxBackoff = Duration.ofMinutes(1);
+      checkpointInterval = Duration.ofSeconds(10);
+    }
+
+    public Builder checkpointDirectory(Path checkpointDirectory) {
+      this.checkpointDirectory = checkNotNull(checkpointDirectory);
+      return this;
+    }
+
+    /**
+     * @param requestsPerSecond the rate at which requests (including retries) may start, positive
+     * @param concurrency the maximal number of requests outstanding, at least one
+     */
+    public Builder limits(double requestsPerSecond, int concurrency) {
+      checkArgument(requestsPerSecond > 0d);
+      checkArgument(concurrency >= 1);
+      this.requestsPerSecond = requestsPerSecond;
+      this.concurrency = concurrency;
+      return this;
+    }
+
+    /**
+     * @param batchSize the maximal number of ids asked for in one request, at least one
+     */
+    public Builder batchSize(int batchSize) {
+      checkArgument(batchSize >= 1);
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * @param maxAttempts the number of times a request is tried before giving up, at least one
+     * @param initialBackoff the delay before the first retry, before jitter
+     * @param maxBackoff the bound of the delay before any retry, before jitter
+     */
+    public Builder retries(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+      checkArgument(maxAttempts >= 1);
+      checkArgument(!initialBackoff.isNegative());
+      checkArgument(maxBackoff.compareTo(initialBackoff) >= 0);
+      this.maxAttempts = maxAttempts;
+      this.initialBackoff = initialBackoff;
+      this.maxBackoff = maxBackoff;
+      return this;
+    }
+
+    /**
+     * @param checkpointInterval the minimal delay between two writes of the frontier
+     */
+    public Builder checkpointInterval(Duration checkpointInterval) {
+      checkArgument(!checkpointInterval.isNegative());
+      this.checkpointInterval = checkpointInterval;
+      return this;
+    }
+
+    public Crawler build() {
+      return new Crawler(this);
+    }
+  }
+
+  /**
+   * Crawls the programs given as arguments (or, if none, the ones listed, separated by commas, in
+   * the system property {@code plaquette.crawl.programs}), resuming from the checkpoint directory
+   * given by {@code plaquette.crawl.dir} (defaults to {@code crawl}). The system properties
+   * {@code plaquette.crawl.rate} (requests per second) and {@code plaquette.crawl.concurrency}
+   * bound the load on the service. Arguments are unnecessary when resuming.
+   */
+  public static void main(String[] args) throws Exception {
+    AuthenticatorHelper.setDefaultAuthenticator();
+
+    final ImmutableSet<String> seeds = args.length == 0
+        ? ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings()
+            .split(System.getProperty("plaquette.crawl.programs", "")))
+        : ImmutableSet.copyOf(args);
+    final Crawler crawler = builder(Querier.instance())
+        .checkpointDirectory(Path.of(System.getProperty("plaquette.crawl.dir", "crawl")))
+        .limits(Double.parseDouble(System.getProperty("plaquette.crawl.rate", "2")),
+            Integer.getInteger("plaquette.crawl.concurrency", 2))
+        .build();
+    final Cacher cache = crawler.crawl(seeds);
+    LOGGER.info("Crawled {} programs, {} courses, {} teachers.", cache.getPrograms().size(),
+        cache.getCourses().size(), cache.getTeachers().size());
+    Metrics.get().write();
+  }
+
+  public static Builder builder(Querier querier) {
+    return new Builder(querier);
+  }
+
+  /**
+   * The delay before the given retry: the exponential backoff, bounded, with its upper half
+   * randomized so that clients failing together do not retry together.
+   *
+   * @param retry the number of the retry, starting at one
+   */
+  static Duration backoff(int retry, Duration initial, Duration max) {
+    checkArgument(retry >= 1);
+    final long maxMillis = max.toMillis();
+    final int shift = Math.min(retry - 1, 62);
+    final long initialMillis = initial.toMillis();
+    final long bound = initialMillis > (maxMillis >> shift) ? maxMillis : initialMillis << shift;
+    return Duration.ofMillis(bound / 2 + ThreadLocalRandom.current().nextLong(bound / 2 + 1));
+  }
+
+  private final Querier querier;
+  private final Path checkpointDirectory;
+  private final RateLimiter rateLimiter;
+  private final int concurrency;
+  private final int batchSize;
+  private final int maxAttempts;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final long checkpointIntervalNanos;
+
+  private final Metrics.Counter requests;
+  private final Metrics.Counter retries;
+
+  private Crawler(Builder builder) {
+    querier = builder.querier;
+    checkpointDirectory = builder.checkpointDirectory;
+    rateLimiter = RateLimiter.create(builder.requestsPerSecond);
+    concurrency = builder.concurrency;
+    batchSize = builder.batchSize;
+    maxAttempts = builder.maxAttempts;
+    initialBackoff = builder.initialBackoff;
+    maxBackoff = builder.maxBackoff;
+    checkpointIntervalNanos = builder.checkpointInterval.toNanos();
+    requests = Metrics.get().counter("crawler_requests_total");
+    retries = Metrics.get().counter("crawler_retries_total");
+  }
+
+  /**
+   * Crawls the given programs and everything they lead to, together with the seeds of the
+   * checkpoint, if any.
+   * <p>
+   * Entities already in the checkpoint are not fetched again, thus, a crawl that completed
+   * returns its content without querying (delete the checkpoint directory to fetch afresh).
+   * </p>
+   *
+   * @return the same data as {@link Cacher#cacheConcurrently(Querier, Set, int)}, for the union
+   *         of the seeds
+   */
+  public Cacher crawl(Set<String> programIds) throws StandardException, IOException {
+    final ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+        new ThreadFactoryBuilder().setNameFormat("crawler-%d").setDaemon(true).build());
+    final Metrics.Timer timer = Metrics.get().timer("crawler_crawl_seconds");
+    final long start = timer.start();
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(checkpointDirectory)) {
+      return new Crawl(checkpoint, executor).run(programIds);
+    } finally {
+      timer.stop(start);
+      executor.shutdownNow();
+      try {
+        if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          LOGGER.warn("Some requests are still running after cancellation.");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private static interface Fetch<T> {
+    ImmutableList<T> fetch(ImmutableSet<String> ids) throws StandardException;
+  }
+
+  /**
+   * Waits for the rate limiter before each attempt.
+   */
+  private <T> ImmutableList<T> fetchWithRetries(Fetch<T> fetch, ImmutableSet<String> ids)
+      throws StandardException {
+    for (int attempt = 1;; ++attempt) {
+      rateLimiter.acquire();
+      requests.add(1);
+      try {
+        return fetch.fetch(ids);
+      } catch (StandardException | WebServiceException | UncheckedStandardException e) {
+        if (attempt == maxAttempts) {
+          throw e;
+        }
+        final Duration delay = backoff(attempt, initialBackoff, maxBackoff);
+        LOGGER.warn("Attempt {} of {} failed for {} ids, retrying in {} ms.", attempt,
+            maxAttempts, ids.size(), delay.toMillis(), e);
+        retries.add(1);
+        try {
+          Thread.sleep(delay.toMillis());
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException("Interrupted while waiting to retry.", interrupted);
+        }
+      }
+    }
+  }
+
+  /**
+   * One run of the crawler. As in {@link PipelinedCrawl}, fetching happens on the executor and
+   * all the bookkeeping, including writing the checkpoint, on the thread that runs the crawl.
+   */
+  private class Crawl {
+    private final CrawlCheckpoint checkpoint;
+    private final CompletionService<Runnable> completion;
+    private int outstanding;
+    private long lastCheckpoint;
+
+    private final Set<String> seeds;
+    private final Map<String, Program> programs;
+    private final Map<String, Course> courses;
+    private final Map<String, Person> teachers;
+    /**
+     * Per kind, the ids known to be needed and not fetched yet (including those being fetched).
+     */
+    private final Map<Kind, Set<String>> pending;
+    /**
+     * Per kind, the ids whose fetch has not started yet: a subset of the pending ones.
+     */
+    private final Map<Kind, Set<String>> waiting;
+    private final Map<Kind, Set<String>> missing;
+
+    Crawl(CrawlCheckpoint checkpoint, ExecutorService executor) {
+      this.checkpoint = checkpoint;
+      completion = new ExecutorCompletionService<>(executor);
+      outstanding = 0;
+      lastCheckpoint = System.nanoTime();
+      seeds = new LinkedHashSet<>();
+      programs = new LinkedHashMap<>(checkpoint.getPrograms());
+      courses = new LinkedHashMap<>(checkpoint.getCourses());
+      teachers = new LinkedHashMap<>(checkpoint.getTeachers());
+      pending = new EnumMap<>(Kind.class);
+      waiting = new EnumMap<>(Kind.class);
+      missing = new EnumMap<>(Kind.class);
+      for (Kind kind : Kind.values()) {
+        pending.put(kind, new LinkedHashSet<>());
+        waiting.put(kind, new LinkedHashSet<>());
+        missing.put(kind, new LinkedHashSet<>());
+      }
+    }
+
+    Cacher run(Set<String> programIds) throws StandardException, IOException {
+      checkpoint.getFrontier().ifPresent(f -> {
+        seeds.addAll(f.seeds());
+        f.pending().forEach(this::need);
+        /* Ids found missing by an earlier run are retried, once per run. */
+        f.missing().forEach(this::need);
+      });
+      seeds.addAll(programIds);
+      seeds.forEach(id -> need(Kind.PROGRAM, id));
+      /* The frontier may lag behind the log: the references of the entities logged complete it. */
+      programs.values().forEach(this::needReferences);
+      courses.values().forEach(this::needReferences);
+      LOGGER.info("Crawl starting with {} programs, {} courses, {} teachers known, {} ids pending.",
+          programs.size(), courses.size(), teachers.size(), pendingCount());
+      writeCheckpoint();
+
+      while (outstanding > 0 || waiting.values().stream().anyMatch(s -> !s.isEmpty())) {
+        boolean submitted = true;
+        while (outstanding < concurrency && submitted) {
+          submitted = submitNext();
+        }
+        final Runnable continuation = takeNext();
+        --outstanding;
+        continuation.run();
+        if (System.nanoTime() - lastCheckpoint >= checkpointIntervalNanos) {
+          writeCheckpoint();
+        }
+      }
+      writeCheckpoint();
+      if (missing.values().stream().anyMatch(s -> !s.isEmpty())) {
+        LOGGER.warn("Missing from the service: {}.", missing);
+      }
+      return Cacher.ordered(seeds, programs, courses, teachers);
+    }
+
+    private int pendingCount() {
+      return pending.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private void need(Kind kind, String id) {
+      final boolean known = switch (kind) {
+        case PROGRAM -> programs.containsKey(id);
+        case COURSE -> courses.containsKey(id);
+        case TEACHER -> teachers.containsKey(id);
+      };
+      if (!known && !missing.get(kind).contains(id) && pending.get(kind).add(id)) {
+        waiting.get(kind).add(id);
+      }
+    }
+
+    private void needReferences(Program program) {
+      program.getProgramStructure().getValue().getRefProgram()
+          .forEach(id -> need(Kind.PROGRAM, id));
+      program.getProgramStructure().getValue().getRefCourse()
+          .forEach(id -> need(Kind.COURSE, id));
+    }
+
+    private void needReferences(Course course) {
+      Cacher.getTeacherRefs(course).forEach(id -> need(Kind.TEACHER, id));
+    }
+
+    /**
+     * Submits a batch of waiting ids, programs first as they lead to the other entities.
+     *
+     * @return {@code false} iff nothing is waiting
+     */
+    private boolean submitNext() {
+      for (Kind kind : Kind.values()) {
+        final Set<String> waitingIds = waiting.get(kind);
+        if (!waitingIds.isEmpty()) {
+          final ImmutableSet<String> ids =
+              ImmutableSet.copyOf(Iterables.limit(waitingIds, batchSize));
+          waitingIds.removeAll(ids);
+          submit(switch (kind) {
+            case PROGRAM -> () -> {
+              final ImmutableList<Program> fetched = fetchWithRetries(querier::getPrograms, ids);
+              return () -> receivePrograms(ids, fetched);
+            };
+            case COURSE -> () -> {
+              final ImmutableList<Course> fetched = fetchWithRetries(querier::getCourses, ids);
+              return () -> receiveCourses(ids, fetched);
+            };
+            case TEACHER -> () -> {
+              final ImmutableList<Person> fetched = fetchWithRetries(querier::getPersons, ids);
+              return () -> receiveTeachers(ids, fetched);
+            };
+          });
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private void submit(Callable<Runnable> fetch) {
+      ++outstanding;
+      completion.submit(fetch);
+    }
+
+    private Runnable takeNext() throws StandardException {
+      final Future<Runnable> done;
+      try {
+        done = completion.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while crawling.", e);
+      }
+      return StandardFutures.get(done);
+    }
+
+    private void receivePrograms(ImmutableSet<String> ids, List<Program> fetched) {
+      log(() -> checkpoint.appendPrograms(fetched));
+      fetched.forEach(p -> programs.put(p.getProgramID(), p));
+      received(Kind.PROGRAM, ids, programs.keySet());
+      fetched.forEach(this::needReferences);
+    }
+
+    private void receiveCourses(ImmutableSet<String> ids, List<Course> fetched) {
+      log(() -> checkpoint.appendCourses(fetched));
+      fetched.forEach(c -> courses.put(c.getCourseID(), c));
+      received(Kind.COURSE, ids, courses.keySet());
+      fetched.forEach(this::needReferences);
+    }
+
+    private void receiveTeachers(ImmutableSet<String> ids, List<Person> fetched) {
+      log(() -> checkpoint.appendTeachers(fetched));
+      fetched.forEach(p -> teachers.put(p.getPersonID(), p));
+      received(Kind.TEACHER, ids, teachers.keySet());
+    }
+
+    private void received(Kind kind, ImmutableSet<String> ids, Set<String> known) {
+      pending.get(kind).removeAll(ids);
+      final ImmutableSet<String> notFound =
+          ids.stream().filter(id -> !known.contains(id)).collect(ImmutableSet.toImmutableSet());
+      missing.get(kind).addAll(notFound);
+      Metrics.get().counter("crawler_entities_total", "kind", kind.name().toLowerCase(Locale.ROOT))
+          .add(ids.size() - notFound.size());
+    }
+
+    private void log(IoAction action) {
+      try {
+        action.run();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void writeCheckpoint() throws IOException {
+      final ImmutableSetMultimap.Builder<Kind, String> pendingIds = ImmutableSetMultimap.builder();
+      pending.forEach(pendingIds::putAll);
+      final ImmutableSetMultimap.Builder<Kind, String> missingIds = ImmutableSetMultimap.builder();
+      missing.forEach(missingIds::putAll);
+      checkpoint.writeFrontier(
+          new Frontier(ImmutableSet.copyOf(seeds), pendingIds.build(), missingIds.build()));
+      lastCheckpoint = System.nanoTime();
+      LOGGER.debug("Checkpoint: {} programs, {} courses, {} teachers, {} ids pending.",
+          programs.size(), courses.size(), teachers.size(), pendingCount());
+    }
+  }
+
+  @FunctionalInterface
+  private static interface IoAction {
+    void run() throws IOException;
+  }
+}
@@ -0,0 +1,338 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+/**
+ * Writes DocBook 5 directly, ready for validation and transformation, without going through
+ * AsciiDoc.
+ * <p>
+ * Sections are opened by headings and closed by the next heading of the same or a higher level,
+ * or at the end of the content. A fragment is a sequence of complete sections, each declaring the
+ * DocBook namespace.
+ * </p>
+ */
+public class DocBookEmitter implements DocumentEmitter {
+  public static final String DOCBOOK_NS = "http://docbook.org/ns/docbook";
+
+  private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+
+  private static final XMLOutputFactory FACTORY = XMLOutputFactory.newFactory();
+
+  public static DocBookEmitter create() {
+    return new DocBookEmitter(false);
+  }
+
+  @FunctionalInterface
+  private static interface XmlWriting {
+    void write() throws XMLStreamException;
+  }
+
+  private final boolean fragment;
+  private final StringWriter out;
+  private final XMLStreamWriter xml;
+  private final Deque<Integer> openSections;
+  private boolean articleOpen;
+  private int depth;
+  private boolean paraOpen;
+
+  private DocBookEmitter(boolean fragment) {
+    this.fragment = fragment;
+    out = new StringWriter();
+    try {
+      xml = FACTORY.createXMLStreamWriter(out);
+    } catch (XMLStreamException e) {
+      throw new VerifyException(e);
+    }
+    openSections = new ArrayDeque<>();
+    articleOpen = false;
+    depth = 0;
+    paraOpen = false;
+  }
+
+  private void writing(XmlWriting writing) {
+    try {
+      writing.write();
+    } catch (XMLStreamException e) {
+      throw new VerifyException(e);
+    }
+  }
+
+  private void start(String localName) throws XMLStreamException {
+    xml.writeStartElement(localName);
+    if (depth == 0) {
+      xml.writeDefaultNamespace(DOCBOOK_NS);
+    }
+    ++depth;
+  }
+
+  private void end() throws XMLStreamException {
+    xml.writeEndElement();
+    --depth;
+  }
+
+  private void element(String localName, String text) throws XMLStreamException {
+    start(localName);
+    xml.writeCharacters(text);
+    end();
+  }
+
+  @Override
+  public void title(String title) {
+    checkState(!fragment && !articleOpen && depth == 0);
+    writing(() -> {
+      xml.writeStartDocument("UTF-8", "1.0");
+      start("article");
+      xml.writeNamespace("xlink", XLINK_NS);
+      xml.writeAttribute("version", "5.0");
+      xml.writeAttribute("xml", "http://www.w3.org/XML/1998/namespace", "lang", "fr");
+      start("info");
+      element("title", title);
+      end();
+    });
+    articleOpen = true;
+  }
+
+  @Override
+  public void heading(int level, String title) {
+    checkArgument(2 <= level && level <= 5, level);
+    writing(() -> {
+      while (!openSections.isEmpty() && openSections.peek() >= level) {
+        end();
+        openSections.pop();
+      }
+      start("section");
+      element("title", title);
+    });
+    openSections.push(level);
+  }
+
+  @Override
+  public void paragraph(String text) {
+    writing(() -> element("para", text));
+  }
+
+  @Override
+  public void paragraphWithLink(String before, String url, String linkText, String after) {
+    writing(() -> {
+      start("para");
+      xml.writeCharacters(before);
+      start("link");
+      xml.writeAttribute("xlink", XLINK_NS, "href", url);
+      xml.writeCharacters(linkText);
+      end();
+      xml.writeCharacters(after);
+      end();
+    });
+  }
+
+  @Override
+  public void eol() {
+    /* Line ends are not significant in DocBook. */
+  }
+
+  @Override
+  public void table(String columnWidths, ImmutableList<String> headers,
+      ImmutableList<ImmutableList<String>> rows) {
+    final List<String> widths = Splitter.on(',').trimResults().splitToList(columnWidths);
+    checkArgument(widths.size() == headers.size());
+    writing(() -> {
+      start("informaltable");
+      start("tgroup");
+      xml.writeAttribute("cols", String.valueOf(widths.size()));
+      for (int i = 0; i < widths.size(); ++i) {
+        start("colspec");
+        xml.writeAttribute("colname", "col_" + (i + 1));
+        xml.writeAttribute("colwidth", widths.get(i) + "*");
+        end();
+      }
+      start("thead");
+      writeRow(headers);
+      end();
+      start("tbody");
+      for (ImmutableList<String> row : rows) {
+        writeRow(row);
+      }
+      end();
+      end();
+      end();
+    });
+  }
+
+  private void writeRow(List<String> cells) throws XMLStreamException {
+    start("row");
+    for (String cell : cells) {
+      start("entry");
+      element("para", cell);
+      end();
+    }
+    end();
+  }
+
+  /**
+   * Writes nothing if the fragment has no text, as a DocBook section may not hold only a title.
+   */
+  @Override
+  public void htmlSection(String title, String html) {
+    final Element body = Jsoup.parse(html).body();
+    if (body.text().isBlank()) {
+      return;
+    }
+    heading(5, title);
+    writing(() -> {
+      writeBlocks(body.childNodes());
+      closePara();
+    });
+  }
+
+  private void openPara() throws XMLStreamException {
+    if (!paraOpen) {
+      start("para");
+      paraOpen = true;
+    }
+  }
+
+  private void closePara() throws XMLStreamException {
+    if (paraOpen) {
+      end();
+      paraOpen = false;
+    }
+  }
+
+  private void writeBlocks(List<Node> nodes) throws XMLStreamException {
+    for (Node node : nodes) {
+      if (node instanceof TextNode) {
+        final String text = ((TextNode) node).text();
+        if (!text.isBlank()) {
+          openPara();
+          xml.writeCharacters(text);
+        }
+      } else if (node instanceof Element) {
+        final Element element = (Element) node;
+        switch (element.normalName()) {
+          case "br":
+            closePara();
+            break;
+          case "strong":
+            openPara();
+            writeStrong(element);
+            break;
+          case "p":
+            closePara();
+            openPara();
+            writeInlines(element.childNodes());
+            closePara();
+            break;
+          case "ul":
+            closePara();
+            writeList(element);
+            break;
+          default:
+            throw new IllegalArgumentException(node.outerHtml());
+        }
+      } else {
+        throw new IllegalArgumentException(node.outerHtml());
+      }
+    }
+  }
+
+  private void writeList(Element list) throws XMLStreamException {
+    start("itemizedlist");
+    for (Node node : list.childNodes()) {
+      if (node instanceof TextNode && ((TextNode) node).isBlank()) {
+        continue;
+      }
+      if (!(node instanceof Element) || !((Element) node).normalName().equals("li")) {
+        throw new IllegalArgumentException(node.outerHtml());
+      }
+      start("listitem");
+      start("para");
+      writeInlines(node.childNodes());
+      end();
+      end();
+    }
+    end();
+  }
+
+  /**
+   * Writes the given nodes as inline content: emphasis for strong elements, text for the others.
+   */
+  private void writeInlines(List<Node> nodes) throws XMLStreamException {
+    for (Node node : nodes) {
+      if (node instanceof TextNode) {
+        xml.writeCharacters(((TextNode) node).text());
+      } else if (node instanceof Element) {
+        final Element element = (Element) node;
+        switch (element.normalName()) {
+          case "strong":
+            writeStrong(element);
+            break;
+          case "br":
+            xml.writeCharacters(" ");
+            break;
+          default:
+            xml.writeCharacters(element.text());
+        }
+      } else {
+        throw new IllegalArgumentException(node.outerHtml());
+      }
+    }
+  }
+
+  private void writeStrong(Element strong) throws XMLStreamException {
+    start("emphasis");
+    xml.writeAttribute("role", "strong");
+    writeInlines(strong.childNodes());
+    end();
+  }
+
+  @Override
+  public void append(String fragment) {
+    writing(() -> {
+      /* Closes the start tag that may be pending, then writes the fragment as is. */
+      xml.writeCharacters("");
+      xml.flush();
+    });
+    out.write(fragment);
+  }
+
+  @Override
+  public DocBookEmitter newFragment() {
+    return new DocBookEmitter(true);
+  }
+
+  /**
+   * Closes the open sections (and the article), thus, should not be followed by further writing.
+   */
+  @Override
+  public String getContent() {
+    writing(() -> {
+      while (!openSections.isEmpty()) {
+        end();
+        openSections.pop();
+      }
+      if (articleOpen) {
+        end();
+        xml.writeEndDocument();
+        articleOpen = false;
+      }
+      xml.flush();
+    });
+    return out.toString();
+  }
+}
@@ -0,0 +1,159 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Stopwatch;
+import io.github.oliviercailloux.publish.DocBookConformityChecker;
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.xml.transform.stream.StreamSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates DocBook documents, compiling the DocBook schema as rarely as possible.
+ * <p>
+ * A checker (which holds the compiled schema) is never used by two threads at once. Checkers are
+ * created on demand and kept for reuse, thus, the schema is compiled once per validation that
+ * runs concurrently with the others, at most, rather than once per document.
+ * </p>
+ * <p>
+ * Depending on its mode, this validator may skip documents: all documents but one in some number
+ * ({@link Mode#SAMPLING}).
+ * </p>
+ * <p>
+ * Safe for use by several threads.
+ * </p>
+ */
+public class DocBookValidator {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(DocBookValidator.class);
+
+  /**
+   * The system property that selects the mode: {@code always} (the default), or
+   * {@code sample:N}, which validates one document in {@code N}.
+   */
+  public static final String MODE_PROPERTY = "plaquette.validation";
+
+  public static enum Mode {
+    ALWAYS, SAMPLING
+  }
+
+  public static DocBookValidator always() {
+    return new DocBookValidator(DocBookValidator::newChecker, Mode.ALWAYS, 1);
+  }
+
+  /**
+   * Returns a validator that validates the first document, then one document in
+   * {@code samplingPeriod}.
+   */
+  public static DocBookValidator sampling(int samplingPeriod) {
+    return new DocBookValidator(DocBookValidator::newChecker, Mode.SAMPLING, samplingPeriod);
+  }
+
+  public static DocBookValidator fromSystemProperties() {
+    final String mode = System.getProperty(MODE_PROPERTY, "always");
+    if (mode.equals("always")) {
+      return always();
+    }
+    if (mode.startsWith("sample:")) {
+      return sampling(Integer.parseInt(mode.substring("sample:".length())));
+    }
+    throw new IllegalArgumentException("Unknown validation mode: " + mode);
+  }
+
+  private static Consumer<String> newChecker() {
+    LOGGER.info("Compiling the DocBook schema.");
+    final DocBookConformityChecker checker = DocBookConformityChecker.usingDefaults();
+    return docBook -> checker.verifyValid(new StreamSource(new StringReader(docBook)));
+  }
+
+  private final Supplier<Consumer<String>> checkerFactory;
+  private final Mode mode;
+  private final int samplingPeriod;
+
+  private final Queue<Consumer<String>> idleCheckers;
+  private final AtomicInteger submitted;
+  private final AtomicInteger validatedCount;
+  private final AtomicInteger skippedCount;
+  private final AtomicLong validationNanos;
+
+  DocBookValidator(Supplier<Consumer<String>> checkerFactory, Mode mode, int samplingPeriod) {
+    checkArgument(samplingPeriod >= 1);
+    checkArgument(mode == Mode.SAMPLING || samplingPeriod == 1);
+    this.checkerFactory = checkerFactory;
+    this.mode = mode;
+    this.samplingPeriod = samplingPeriod;
+    idleCheckers = new ConcurrentLinkedQueue<>();
+    submitted = new AtomicInteger();
+    validatedCount = new AtomicInteger();
+    skippedCount = new AtomicInteger();
+    validationNanos = new AtomicLong();
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Validates the given document, unless the mode of this validator allows to skip it.
+   *
+   * @return {@code true} iff the document has been validated
+   * @throws RuntimeException if the document is invalid (the type depends on the checker)
+   */
+  public boolean validate(String docBook) {
+    final int index = submitted.getAndIncrement();
+    if (canSkip(index)) {
+      LOGGER.debug("Skipping validation.");
+      skippedCount.incrementAndGet();
+      return false;
+    }
+
+    final Consumer<String> checker = idleCheckers.poll();
+    final Consumer<String> used = checker == null ? checkerFactory.get() : checker;
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    try {
+      used.accept(docBook);
+    } finally {
+      stopwatch.stop();
+      idleCheckers.add(used);
+      validationNanos.addAndGet(stopwatch.elapsed().toNanos());
+    }
+    LOGGER.info("Validated DocBook in {}.", stopwatch);
+    validatedCount.incrementAndGet();
+    return true;
+  }
+
+  private boolean canSkip(int index) {
+    switch (mode) {
+      case ALWAYS:
+        return false;
+      case SAMPLING:
+        return index % samplingPeriod != 0;
+      default:
+        throw new AssertionError(mode);
+    }
+  }
+
+  public int getValidatedCount() {
+    return validatedCount.get();
+  }
+
+  public int getSkippedCount() {
+    return skippedCount.get();
+  }
+
+  /**
+   * @return the time spent validating, summed over all documents validated (excluding the schema
+   *         compilations)
+   */
+  public Duration getValidationTime() {
+    return Duration.ofNanos(validationNanos.get());
+  }
+}
@@ -0,0 +1,59 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Writes the content of a plaquette in some markup language.
+ * <p>
+ * An emitter accumulates content; {@link #getContent()} returns the document (or fragment) written
+ * so far, complete, so that it can be rendered as is.
+ * </p>
+ */
+public interface DocumentEmitter {
+  /**
+   * Starts a French document with the given title, with a table of contents.
+   */
+  void title(String title);
+
+  /**
+   * @param level from 2 (top-level section) to 5
+   */
+  void heading(int level, String title);
+
+  void paragraph(String text);
+
+  void paragraphWithLink(String before, String url, String linkText, String after);
+
+  /**
+   * Ends the current block, where the markup language needs it.
+   */
+  void eol();
+
+  /**
+   * @param columnWidths relative widths, separated by commas, such as {@code 6, 6, 1}
+   */
+  void table(String columnWidths, ImmutableList<String> headers,
+      ImmutableList<ImmutableList<String>> rows);
+
+  /**
+   * Writes a level 5 section with the given title and content.
+   *
+   * @param html a fragment using only the elements p, br, strong, ul, li
+   * @throws IllegalArgumentException if the fragment uses other elements
+   */
+  void htmlSection(String title, String html);
+
+  /**
+   * Appends a fragment obtained from an emitter returned by {@link #newFragment()} on this
+   * emitter (or an equivalent one).
+   */
+  void append(String fragment);
+
+  /**
+   * Returns an emitter of the same kind, for writing a fragment of a document, starting with a
+   * heading, that can be appended to this one.
+   */
+  DocumentEmitter newFragment();
+
+  String getContent();
+}
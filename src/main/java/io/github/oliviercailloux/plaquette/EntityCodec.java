@@ -0,0 +1,56 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.VerifyException;
+import io.github.oliviercailloux.jaris.exceptions.Unchecker;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import schemas.ebx.dataservices_1.CountCourseRequestType;
+
+/**
+ * Converts single entities of the data services (such as courses) to bytes and back, using their
+ * XML form.
+ * <p>
+ * The conversion of a given entity is deterministic, thus its bytes can also serve to identify its
+ * content.
+ * </p>
+ */
+class EntityCodec {
+  private static final QName ENTITY = new QName("entity");
+
+  private static final Supplier<JAXBContext> CONTEXT =
+      Suppliers.memoize(() -> Unchecker.wrappingWith(VerifyException::new)
+          .getUsing(() -> JAXBContext.newInstance(CountCourseRequestType.class.getPackageName())));
+
+  static <T> byte[] toBytes(Class<T> type, T entity) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      final Marshaller marshaller = CONTEXT.get().createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_ENCODING, StandardCharsets.UTF_8.name());
+      marshaller.marshal(new JAXBElement<>(ENTITY, type, entity), out);
+    } catch (JAXBException e) {
+      throw new VerifyException(e);
+    }
+    return out.toByteArray();
+  }
+
+  static <T> T fromBytes(Class<T> type, byte[] bytes) {
+    try {
+      return CONTEXT.get().createUnmarshaller()
+          .unmarshal(new StreamSource(new ByteArrayInputStream(bytes)), type).getValue();
+    } catch (JAXBException e) {
+      throw new VerifyException(e);
+    }
+  }
+
+  private EntityCodec() {
+  }
+}
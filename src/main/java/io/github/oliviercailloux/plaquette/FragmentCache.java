@@ -0,0 +1,82 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parts of documents, stored on disk under the hash of everything they are generated from, so that
+ * parts whose inputs did not change are not generated again.
+ * <p>
+ * Safe for use by several threads.
+ * </p>
+ */
+public class FragmentCache {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(FragmentCache.class);
+
+  private static final String EXTENSION = ".fragment";
+
+  public static FragmentCache at(Path directory) throws IOException {
+    Files.createDirectories(directory);
+    return new FragmentCache(directory);
+  }
+
+  private final Path directory;
+
+  private final Set<HashCode> used;
+
+  private FragmentCache(Path directory) {
+    this.directory = directory;
+    used = ConcurrentHashMap.newKeySet();
+  }
+
+  /**
+   * Returns the fragment stored under the given key, or generates it with the given renderer and
+   * stores it.
+   */
+  public String get(HashCode key, Supplier<String> renderer) {
+    used.add(key);
+    final Path file = directory.resolve(key + EXTENSION);
+    try {
+      if (Files.exists(file)) {
+        return Files.readString(file);
+      }
+      final String fragment = renderer.get();
+      final Path temp = Files.createTempFile(directory, key.toString(), ".tmp");
+      Files.writeString(temp, fragment);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return fragment;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Deletes the stored fragments that have not been asked for since this instance was created.
+   */
+  public void prune() throws IOException {
+    final ImmutableSet<String> usedNames =
+        used.stream().map(k -> k + EXTENSION).collect(ImmutableSet.toImmutableSet());
+    int deleted = 0;
+    try (DirectoryStream<Path> stored = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+      for (Path file : stored) {
+        if (!usedNames.contains(file.getFileName().toString())) {
+          Files.delete(file);
+          ++deleted;
+        }
+      }
+    }
+    LOGGER.debug("Deleted {} unused fragments.", deleted);
+  }
+}
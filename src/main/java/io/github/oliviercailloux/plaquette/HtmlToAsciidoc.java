@@ -0,0 +1,180 @@
+package io.github.oliviercailloux.plaquette;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Verify;
+import com.google.common.base.VerifyException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.github.oliviercailloux.publish.AsciidocWriter;
+import jakarta.xml.bind.JAXBElement;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+
+/**
+ * Converts the HTML fragments found in course texts to AsciiDoc, in one pass over the parsed
+ * fragment, remembering the results, as many courses share identical texts.
+ * <p>
+ * Results are indexed by a hash of the HTML fragment, rather than by the fragment itself, to keep
+ * the memory footprint small. They are bounded in total length; beyond, the least recently used
+ * ones are evicted.
+ * </p>
+ * <p>
+ * Safe for use by several threads.
+ * </p>
+ */
+public class HtmlToAsciidoc {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(HtmlToAsciidoc.class);
+
+  /**
+   * The bound of the total length of the results kept, in characters.
+   */
+  private static final long MAX_MEMO_LENGTH = 16 * 1024 * 1024;
+
+  private static final HtmlToAsciidoc SHARED = new HtmlToAsciidoc();
+
+  /**
+   * Returns the converter shared by all emitters in this process.
+   */
+  public static HtmlToAsciidoc shared() {
+    return SHARED;
+  }
+
+  public static HtmlToAsciidoc create() {
+    return new HtmlToAsciidoc();
+  }
+
+  private static <T> Optional<T> valueOpt(JAXBElement<T> element) {
+    return element == null ? Optional.empty() : Optional.ofNullable(element.getValue());
+  }
+
+  private final Cache<HashCode, String> memo;
+
+  private HtmlToAsciidoc() {
+    memo = CacheBuilder.newBuilder().maximumWeight(MAX_MEMO_LENGTH)
+        .<HashCode, String>weigher((h, a) -> a.length()).build();
+  }
+
+  /**
+   * @param html a fragment using only the elements p, br, strong, ul, li
+   * @throws IllegalArgumentException if the fragment uses other elements
+   */
+  public String convert(String html) {
+    try {
+      return memo.get(Hashing.sha256().hashString(html, UTF_8), () -> convertNow(html));
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new VerifyException(e.getCause());
+    } catch (ExecutionException e) {
+      throw new VerifyException(e.getCause());
+    }
+  }
+
+  /**
+   * Converts the French texts of the given course, so that later conversions of these texts are
+   * immediate. Texts that can’t be converted are ignored here: they will fail when converted
+   * again.
+   */
+  public void warm(Course course) {
+    Stream
+        .of(valueOpt(course.getRecommendedPrerequisites()).flatMap(t -> valueOpt(t.getFr())),
+            valueOpt(course.getFormalPrerequisites()).flatMap(t -> valueOpt(t.getFr())),
+            valueOpt(course.getLearningObjectives()).flatMap(t -> valueOpt(t.getFr())),
+            valueOpt(course.getCourseDescription()).flatMap(t -> valueOpt(t.getFr())),
+            valueOpt(course.getSyllabus()).flatMap(t -> valueOpt(t.getFr())),
+            valueOpt(course.getFormOfAssessment()).flatMap(t -> valueOpt(t.getFr())))
+        .flatMap(Optional::stream).forEach(html -> {
+          try {
+            convert(html);
+          } catch (IllegalArgumentException e) {
+            LOGGER.debug("Could not convert text of {}.", course.getCourseID(), e);
+          }
+        });
+  }
+
+  public long size() {
+    return memo.size();
+  }
+
+  private String convertNow(String html) {
+    final StringBuilder builder = new StringBuilder();
+    appendAll(builder, Jsoup.parse(html).body().childNodes());
+    return builder.toString();
+  }
+
+  private void appendAll(StringBuilder builder, List<Node> nodes) {
+    for (Node node : nodes) {
+      append(builder, node);
+    }
+  }
+
+  private void append(StringBuilder builder, Node node) {
+    if (node instanceof TextNode) {
+      builder.append(AsciidocWriter.quote(((TextNode) node).text().strip()));
+    } else if (node instanceof Element) {
+      final Element element = (Element) node;
+      switch (element.normalName()) {
+        case "br":
+          builder.append("\n\n");
+          break;
+        case "strong":
+          builder.append('*');
+          appendAll(builder, element.childNodes());
+          builder.append('*');
+          break;
+        case "p":
+        case "ul":
+          builder.append("\n\n");
+          appendAll(builder, element.childNodes());
+          break;
+        case "li":
+          appendItem(builder, element);
+          break;
+        default:
+          throw new IllegalArgumentException(node.outerHtml());
+      }
+    } else {
+      throw new IllegalArgumentException(node.outerHtml());
+    }
+  }
+
+  private void appendItem(StringBuilder builder, Element item) {
+    final List<Node> children = item.childNodes();
+    if (children.size() == 1) {
+      final Node child = children.get(0);
+      Verify.verify(child instanceof TextNode);
+      final String inner = ((TextNode) child).text();
+      Verify.verify(!inner.isBlank());
+      builder.append("- ").append(inner).append('\n');
+    } else {
+      /* The raw text content of the item, without line breaks. */
+      final StringBuilder text = new StringBuilder();
+      appendWholeText(text, item);
+      builder.append("- ").append(text.toString().replace("\n", ""));
+    }
+  }
+
+  private void appendWholeText(StringBuilder builder, Node node) {
+    if (node instanceof TextNode) {
+      builder.append(((TextNode) node).getWholeText());
+    } else {
+      for (Node child : node.childNodes()) {
+        appendWholeText(builder, child);
+      }
+    }
+  }
+}
@@ -1,23 +1,23 @@
 package io.github.oliviercailloux.plaquette;
 
 import static com.google.common.base.Verify.verify;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
-import com.google.common.io.MoreFiles;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
 import ebx.ebx_dataservices.StandardException;
 import io.github.oliviercailloux.jaris.xml.DomHelper;
-import io.github.oliviercailloux.publish.AsciidocWriter;
-import io.github.oliviercailloux.publish.DocBookConformityChecker;
-import io.github.oliviercailloux.publish.DocBookTransformer;
-import io.github.oliviercailloux.publish.ToBytesTransformer;
 import jakarta.xml.bind.JAXBElement;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -31,16 +31,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import javax.xml.transform.stream.StreamSource;
-import org.asciidoctor.Asciidoctor;
-import org.asciidoctor.Options;
-import org.jsoup.Jsoup;
-import org.jsoup.helper.W3CDom;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.nodes.TextNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import schemas.ebx.dataservices_1.CourseType.Root.Course;
@@ -51,8 +43,6 @@ public class M1AltBuilder {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = LoggerFactory.getLogger(M1AltBuilder.class);
 
-  private static final boolean WRITE_HTML = false;
-
   public static final String MENTION_ID = "FRUAI0750736TPRMEA5IFO";
 
   public static final String PROGRAM_IDENT = "PRA4AMIA-100";
@@ -88,53 +78,140 @@ public class M1AltBuilder {
 
     final M1AltBuilder builder = new M1AltBuilder();
     builder.proceed();
+    Metrics.get().write();
+  }
+
+  private static Metrics.Timer phase(String name) {
+    return Metrics.get().timer("builder_phase_seconds", "builder", "M1AltBuilder", "phase", name);
+  }
+
+  private static final Path FINGERPRINTS_FILE = Path.of("out.fingerprints");
+
+  private static final Path OUTPUT_PDF = Path.of("out.pdf");
+
+  /**
+   * The system property that selects the markup written: {@code asciidoc} (the default), converted
+   * to DocBook by Asciidoctor, or {@code docbook}, written directly.
+   */
+  public static final String BACKEND_PROPERTY = "plaquette.backend";
+
+  static DocumentEmitter newEmitter(String backend) {
+    switch (backend) {
+      case "asciidoc":
+        return AsciidocEmitter.create();
+      case "docbook":
+        return DocBookEmitter.create();
+      default:
+        throw new IllegalArgumentException("Unknown backend: " + backend);
+    }
+  }
+
+  /**
+   * The classes whose code the document depends on, from the data to the PDF.
+   */
+  private static final ImmutableList<Class<?>> RENDERING_CLASSES = ImmutableList.of(
+      M1AltBuilder.class, ProgramDocument.class, ParallelFragments.class, DocumentEmitter.class,
+      AsciidocEmitter.class, DocBookEmitter.class, HtmlToAsciidoc.class, RenderingEngine.class,
+      PdfPipeline.class);
+
+  /**
+   * Hashes what the document depends on, besides the data: the code that renders it (including
+   * nested classes), the stylesheet and the backend.
+   */
+  private static HashCode getGeneratorFingerprint(String backend) throws IOException {
+    final Hasher hasher = Hashing.sha256().newHasher();
+    for (Class<?> rendering : RENDERING_CLASSES) {
+      putClass(hasher, rendering);
+    }
+    hasher.putBytes(Resources.toByteArray(M1AltBuilder.class.getResource("dauphine.xsl")));
+    hasher.putString(backend, UTF_8);
+    return hasher.hash();
   }
 
-  private final AsciidocWriter writer;
+  private static void putClass(Hasher hasher, Class<?> clazz) throws IOException {
+    final String name = clazz.getName();
+    final String file = name.substring(name.lastIndexOf('.') + 1) + ".class";
+    hasher.putBytes(Resources.toByteArray(clazz.getResource(file)));
+    for (Class<?> nested : clazz.getDeclaredClasses()) {
+      putClass(hasher, nested);
+    }
+  }
+
+  private final String backend;
+
+  private final DocumentEmitter writer;
+
+  private final boolean parallel;
 
   private Cacher cache;
 
-  private final Querier querier;
+  private CatalogFingerprints fingerprints;
+
+  private FragmentCache fragments;
+
+  private final Supplier<Querier> querier;
 
   public M1AltBuilder() {
-    writer = new AsciidocWriter();
+    backend = System.getProperty(BACKEND_PROPERTY, "asciidoc");
+    writer = newEmitter(backend);
+    parallel = ParallelFragments.isParallelByDefault();
     cache = null;
-    querier = Querier.instance();
+    querier = Suppliers.memoize(Querier::instance);
   }
 
   private void proceed() throws StandardException, IOException {
     final ImmutableSet<String> programs = ImmutableSet.of(PROGRAM_ID, PROGRAM_ID_S1,
         PROGRAM_ID_S1_L1, PROGRAM_ID_S2, PROGRAM_ID_S2_L1, PROGRAM_ID_S2_L2);
     LOGGER.info("Caching.");
-    cache = Cacher.cache(querier, programs);
-
+    final Metrics.Timer fetchPhase = phase("fetch");
+    final long fetchStart = fetchPhase.start();
+    cache = CatalogSnapshot.fromSystemProperties(Path.of("catalog.snapshot")).load(querier,
+        programs);
+    fetchPhase.stop(fetchStart);
+
+    final Metrics.Timer verifyPhase = phase("verify");
+    final long verifyStart = verifyPhase.start();
     verify();
+    verifyPhase.stop(verifyStart);
+
+    final Metrics.Timer fingerprintPhase = phase("fingerprint");
+    final long fingerprintStart = fingerprintPhase.start();
+    fingerprints = CatalogFingerprints.of(cache, getGeneratorFingerprint(backend));
+    final Optional<CatalogFingerprints> previous = CatalogFingerprints.read(FINGERPRINTS_FILE);
+    fingerprintPhase.stop(fingerprintStart);
+    if (previous.isPresent()) {
+      final ImmutableSet<String> changed = fingerprints.changedSince(previous.get());
+      LOGGER.info("Changed since previous run: {}.", changed);
+      if (changed.isEmpty() && Files.exists(OUTPUT_PDF)) {
+        LOGGER.info("Nothing changed, keeping {}.", OUTPUT_PDF);
+        return;
+      }
+    }
+    fragments = FragmentCache.at(Path.of("fragments"));
 
-    writer.h1("Programme des cours du M1 MIAGE en alternance");
-    writer.addAttribute("lang", "fr");
-    writer.addAttribute("toc", "preamble");
-    writer.eol();
-    writer.paragraph("Généré le "
+    final Metrics.Timer writePhase = phase("write");
+    final long writeStart = writePhase.start();
+
+    writer.title("Programme des cours du M1 MIAGE en alternance");
+    writer.paragraphWithLink("Généré le "
         + DateTimeFormatter.ofLocalizedDate(FormatStyle.LONG).withLocale(Locale.FRANCE)
             .withZone(ZoneId.of("Europe/Paris")).format(Instant.now())
-        + " à partir des données du " + PROGRAM_URL + "[site internet] de Dauphine.");
+        + " à partir des données du ", PROGRAM_URL, "site internet", " de Dauphine.");
 
     writeSummary();
 
     {
       final String subProgramName =
           cache.getProgram(PROGRAM_ID_S1).getProgramName().getValue().getFr().getValue();
-      writer.h2(subProgramName);
+      writer.heading(2, subProgramName);
     }
 
     {
       final Program program = cache.getProgram(PROGRAM_ID_S1_L1);
       final String programNameFr = program.getProgramName().getValue().getFr().getValue();
-      writer.h3(programNameFr);
+      writer.heading(3, programNameFr);
 
-      for (Course course : cache.getProgramCourses(PROGRAM_ID_S1_L1).values()) {
-        writeCourse(course);
-      }
+      appendCourses(PROGRAM_ID_S1_L1);
     }
 
     // {
@@ -142,7 +219,7 @@ public class M1AltBuilder {
     // Verify.verify(program.getProgramStructure().getValue().getRefProgram().isEmpty());
     // final String programNameFr = program.getProgramName().getValue().getFr().getValue();
     // Verify.verify(programNameFr.equals(S1_L2_NAME), programNameFr);
-    // writer.h3(programNameFr);
+    // writer.heading(3, programNameFr);
     //
     // for (Course course : cache.getProgramCourses(PROGRAM_ID_S1_L2).values()) {
     // writeCourse(course);
@@ -152,54 +229,48 @@ public class M1AltBuilder {
     {
       final String subProgramName =
           cache.getProgram(PROGRAM_ID_S2).getProgramName().getValue().getFr().getValue();
-      writer.h2(subProgramName);
+      writer.heading(2, subProgramName);
     }
 
     {
       final Program program = cache.getProgram(PROGRAM_ID_S2_L1);
       final String programNameFr = program.getProgramName().getValue().getFr().getValue();
-      writer.h3(programNameFr);
+      writer.heading(3, programNameFr);
 
-      for (Course course : cache.getProgramCourses(PROGRAM_ID_S2_L1).values()) {
-        writeCourse(course);
-      }
+      appendCourses(PROGRAM_ID_S2_L1);
     }
 
     {
       final Program program = cache.getProgram(PROGRAM_ID_S2_L2);
       final String programNameFr = program.getProgramName().getValue().getFr().getValue();
-      writer.h3(programNameFr);
+      writer.heading(3, programNameFr);
 
-      for (Course course : cache.getProgramCourses(PROGRAM_ID_S2_L2).values()) {
-        writeCourse(course);
-      }
+      appendCourses(PROGRAM_ID_S2_L2);
     }
 
-    final String adoc = writer.getContent();
-    Files.writeString(Paths.get("out.adoc"), adoc);
+    final String content = writer.getContent();
+    writePhase.stop(writeStart);
 
-    LOGGER.info("Creating Asciidoctor converter.");
-    final String docBook;
-    try (Asciidoctor adocConverter = Asciidoctor.Factory.create()) {
-      LOGGER.info("Converting to Docbook.");
-      docBook = adocConverter.convert(adoc,
-          Options.builder().headerFooter(true).backend("docbook").build());
+    final Metrics.Timer renderPhase = phase("render");
+    final long renderStart = renderPhase.start();
+    try (RenderingEngine engine = RenderingEngine.create()) {
+      if (writer instanceof AsciidocEmitter) {
+        try (Writer adoc = Files.newBufferedWriter(Paths.get("out.adoc"))) {
+          adoc.write(content);
+        }
+        engine.render(content, OUTPUT_PDF);
+      } else {
+        engine.renderDocBook(content, OUTPUT_PDF);
+      }
     }
-    LOGGER.info("Validating Docbook.");
-    LOGGER.debug("Docbook: {}.", docBook);
-    DocBookConformityChecker.usingDefaults()
-        .verifyValid(new StreamSource(new StringReader(docBook)));
-    final StreamSource myStyle =
-        new StreamSource(M1AltBuilder.class.getResource("dauphine.xsl").toString());
-    final ToBytesTransformer toPdf =
-        DocBookTransformer.usingDefaultFactory().usingFoStylesheet(myStyle, ImmutableMap.of())
-            .asDocBookToPdfTransformer(Path.of("non-existent-" + Instant.now()).toUri());
-    toPdf.toSink(new StreamSource(new StringReader(docBook)),
-        MoreFiles.asByteSink(Path.of("out.pdf")));
+    renderPhase.stop(renderStart);
+
+    fingerprints.write(FINGERPRINTS_FILE);
+    fragments.prune();
   }
 
   private void writeSummary() {
-    writer.h2("Vue d’ensemble");
+    writer.heading(2, "Vue d’ensemble");
     final ImmutableList.Builder<ImmutableList<String>> summaryBuilder = ImmutableList.builder();
     for (Course course : cache.getCourses().values()) {
       final String courseId = course.getCourseID();
@@ -262,9 +333,35 @@ public class M1AltBuilder {
     }
   }
 
-  private void writeCourse(Course course) {
+  /**
+   * Appends the sections about the courses of the given program, generated concurrently unless
+   * configured otherwise.
+   */
+  private void appendCourses(String programId) {
+    ParallelFragments.render(cache.getProgramCourses(programId).values().asList(), parallel,
+        this::getCourseFragment).forEach(writer::append);
+  }
+
+  /**
+   * Returns the section about the given course, generated unless stored from a previous run with
+   * the same course, teachers and generator (which covers the backend).
+   */
+  private String getCourseFragment(Course course) {
+    final ImmutableList.Builder<HashCode> inputs = ImmutableList.builder();
+    inputs.add(fingerprints.getGenerator());
+    inputs.add(fingerprints.getCourse(course.getCourseID()));
+    cache.getCourseTeachers(course.getCourseID()).keySet().stream()
+        .map(fingerprints::getPerson).forEach(inputs::add);
+    return fragments.get(Hashing.combineOrdered(inputs.build()), () -> {
+      final DocumentEmitter courseWriter = writer.newFragment();
+      writeCourse(courseWriter, course);
+      return courseWriter.getContent();
+    });
+  }
+
+  private void writeCourse(DocumentEmitter writer, Course course) {
     final String courseName = course.getCourseName().getValue().getFr().getValue();
-    writer.h4(courseName);
+    writer.heading(4, courseName);
     final String volume = course.getVolume().getValue();
     Verify.verify(volume.equals("0") == courseName.equals("Mémoire"), courseName);
     final String volumeText = volume.equals("0") ? "" : volume + " h" + " ; ";
@@ -300,94 +397,31 @@ public class M1AltBuilder {
     writer.eol();
     final Optional<String> recommendedPrerequisitesOpt =
         valueOpt(course.getRecommendedPrerequisites(), Course.RecommendedPrerequisites::getFr);
-    addOptionalSection("Prérequis recommandés", recommendedPrerequisitesOpt);
+    addOptionalSection(writer, "Prérequis recommandés", recommendedPrerequisitesOpt);
     final Optional<String> formalPrerequisitesOpt =
         valueOpt(course.getFormalPrerequisites(), Course.FormalPrerequisites::getFr);
-    addOptionalSection("Prérequis obligatoires", formalPrerequisitesOpt);
+    addOptionalSection(writer, "Prérequis obligatoires", formalPrerequisitesOpt);
     final Optional<String> learningObjectivesOpt =
         valueOpt(course.getLearningObjectives(), Course.LearningObjectives::getFr);
-    addOptionalSection("Compétences à acquérir", learningObjectivesOpt);
+    addOptionalSection(writer, "Compétences à acquérir", learningObjectivesOpt);
     final Optional<String> courseDescriptionOpt =
         valueOpt(course.getCourseDescription(), Course.CourseDescription::getFr);
-    addOptionalSection("Contenu", courseDescriptionOpt);
+    addOptionalSection(writer, "Contenu", courseDescriptionOpt);
     if (courseDescriptionOpt.isEmpty()) {
       Verify.verify(courseName.equals("Mémoire"), courseName);
     }
     final Optional<String> syllabusOpt = valueOpt(course.getSyllabus(), Course.Syllabus::getFr);
-    addOptionalSection("Références", syllabusOpt);
+    addOptionalSection(writer, "Références", syllabusOpt);
     final Optional<String> formOfAssessmentOpt =
         valueOpt(course.getFormOfAssessment(), Course.FormOfAssessment::getFr);
-    addOptionalSection("Évaluation", formOfAssessmentOpt);
+    addOptionalSection(writer, "Évaluation", formOfAssessmentOpt);
   }
 
-  private void addOptionalSection(final String title, final Optional<String> contentOpt) {
+  private void addOptionalSection(DocumentEmitter writer, final String title,
+      final Optional<String> contentOpt) {
     if (contentOpt.isPresent()) {
-      final String content = contentOpt.get();
-      if (WRITE_HTML) {
-        writer.h5(title + " html");
-        writer.verbatim(content);
-        writer.eol();
-      }
-      writer.h5(title);
-      writer.append(getText(content));
-      writer.eol();
-    }
-  }
-
-  private String getText(String htmlText) {
-    final Document parsed = Jsoup.parse(htmlText);
-    final List<Node> children = parsed.body().childNodes();
-    return getText(children);
-  }
-
-  private String getText(List<Node> children) {
-    final StringBuilder textBuilder = new StringBuilder();
-    for (Node node : children) {
-      final String text = getText(node);
-      textBuilder.append(text);
-    }
-    final String text = textBuilder.toString();
-    return text;
-  }
-
-  private String getText(Node node) {
-    final String text;
-    if (node instanceof TextNode) {
-      text = AsciidocWriter.quote(((TextNode) node).text().strip());
-    } else if (node instanceof Element) {
-      final Element element = (Element) node;
-      final String tag = element.normalName();
-      if (tag.equals("br")) {
-        text = "\n\n";
-      } else if (tag.equals("strong")) {
-        text = "*" + getText(element.childNodes()) + "*";
-      } else if (tag.equals("p")) {
-        text = "\n\n" + getText(element.childNodes());
-      } else if (tag.equals("ul")) {
-        text = "\n\n" + getText(element.childNodes());
-      } else if (tag.equals("li")) {
-        final List<Node> liChildren = element.childNodes();
-        if (liChildren.size() == 1) {
-          final Node liChild = liChildren.get(0);
-          Verify.verify(liChild instanceof TextNode);
-          final String inner = ((TextNode) liChild).text();
-          Verify.verify(!inner.isBlank());
-          text = "- " + inner + "\n";
-        } else {
-          String outerHtml = node.outerHtml();
-          Document asDoc = Jsoup.parseBodyFragment(outerHtml);
-          String asString = W3CDom.convert(asDoc).getDocumentElement().getTextContent();
-          // LOGGER.info("Outer: {}.", outerHtml);
-          // LOGGER.info("As string: {}.", asString);
-          text = "- " + asString.replace("\n", "");
-        }
-      } else {
-        throw new IllegalArgumentException(node.outerHtml());
-      }
-    } else {
-      throw new IllegalArgumentException(node.outerHtml());
+      writer.htmlSection(title, contentOpt.get());
     }
-    return text;
   }
 
   public static <T> Optional<T> valueOpt(JAXBElement<T> element) {
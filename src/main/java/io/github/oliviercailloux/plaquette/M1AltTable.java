@@ -1,18 +1,18 @@
 package io.github.oliviercailloux.plaquette;
 
-import static com.google.common.base.Verify.verify;
+import static com.google.common.base.Preconditions.checkState;
 
-import com.google.common.collect.ImmutableCollection;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import de.siegmar.fastcsv.writer.CsvWriter;
 import ebx.ebx_dataservices.StandardException;
-import io.github.oliviercailloux.publish.AsciidocWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Optional;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import schemas.ebx.dataservices_1.CourseType.Root.Course;
 
 public class M1AltTable {
   @SuppressWarnings("unused")
@@ -51,31 +51,34 @@ public class M1AltTable {
 
     final M1AltTable builder = new M1AltTable();
     builder.proceed();
+    Metrics.get().write();
   }
 
-  private Cacher cache;
-
-  private final Querier querier;
+  private final Supplier<Querier> querier;
 
   public M1AltTable() {
-    cache = null;
-    querier = Querier.instance();
+    querier = Suppliers.memoize(Querier::instance);
   }
 
+  /**
+   * Exports from the snapshot if one is usable; otherwise, streams the export from the service,
+   * without fetching the teachers that a full snapshot would hold.
+   */
   private void proceed() throws StandardException, IOException {
     final ImmutableSet<String> programs = ImmutableSet.of(PROGRAM_ID, PROGRAM_ID_S1,
         PROGRAM_ID_S1_L1, PROGRAM_ID_S2, PROGRAM_ID_S2_L1, PROGRAM_ID_S2_L2);
-    cache = Cacher.cache(querier, programs);
-
-    Path file = Paths.get("out.csv");
-    try (CsvWriter csv = CsvWriter.builder().build(file)) {
-      csv.writeRecord("Title", "ECTS");
-
-      ImmutableCollection<Course> courses = cache.getCourses().values();
-      for (Course course : courses) {
-        csv.writeRecord(course.getCourseName().getValue().getFr().getValue(),
-            course.getEcts().getValue());
-      }
+    final ImmutableList<CatalogExporter.Column> columns =
+        ImmutableList.of(CatalogExporter.Column.TITLE, CatalogExporter.Column.ECTS);
+    final CatalogSnapshot snapshot =
+        CatalogSnapshot.fromSystemProperties(Path.of("catalog.snapshot"));
+    final Optional<Cacher> cache = snapshot.read(programs);
+    final CatalogExporter exporter;
+    if (cache.isPresent()) {
+      exporter = CatalogExporter.using(cache.get(), columns, CatalogExporter.Format.CSV);
+    } else {
+      checkState(!snapshot.isOffline(), "No usable snapshot in offline mode.");
+      exporter = CatalogExporter.using(querier.get(), columns, CatalogExporter.Format.CSV);
     }
+    exporter.exportPrograms(programs, Paths.get("out.csv"));
   }
 }
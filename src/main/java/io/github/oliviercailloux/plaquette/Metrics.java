@@ -0,0 +1,305 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records timings, counts and levels during a run, and writes them at the end of the run as a JSON
+ * report and in the Prometheus text format.
+ * <p>
+ * Disabled unless the system property {@value #PROPERTY} is set, to the path prefix of the files to
+ * write (for example, {@code metrics} to write {@code metrics.json} and {@code metrics.prom}).
+ * When disabled, the instruments returned do nothing, and {@link Timer#start()} does not even read
+ * the clock.
+ * </p>
+ * <p>
+ * Callers should obtain their instruments once and keep them, rather than looking them up at each
+ * use. Safe for use by several threads.
+ * </p>
+ */
+public class Metrics {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+  public static final String PROPERTY = "plaquette.metrics";
+
+  /**
+   * Upper bounds, in seconds, of the buckets of the timers.
+   */
+  private static final ImmutableList<Double> BUCKETS =
+      ImmutableList.of(0.005d, 0.01d, 0.025d, 0.05d, 0.1d, 0.25d, 0.5d, 1d, 2.5d, 5d, 10d, 30d);
+
+  private static final Metrics INSTANCE = new Metrics(System.getProperty(PROPERTY));
+
+  public static Metrics get() {
+    return INSTANCE;
+  }
+
+  private static record Series(String name, ImmutableSortedMap<String, String> labels) {
+    static Series of(String name, String... labelPairs) {
+      checkArgument(labelPairs.length % 2 == 0);
+      final ImmutableSortedMap.Builder<String, String> labels = ImmutableSortedMap.naturalOrder();
+      for (int i = 0; i < labelPairs.length; i += 2) {
+        labels.put(labelPairs[i], labelPairs[i + 1]);
+      }
+      return new Series(name, labels.build());
+    }
+
+    String prometheus(String suffix, String extraLabel) {
+      final String labelsText = labels.entrySet().stream()
+          .map(e -> e.getKey() + "=\"" + escape(e.getValue()) + "\"")
+          .collect(Collectors.joining(","));
+      final String all = extraLabel.isEmpty() ? labelsText
+          : labelsText.isEmpty() ? extraLabel : labelsText + "," + extraLabel;
+      return name + suffix + (all.isEmpty() ? "" : "{" + all + "}");
+    }
+
+    String json() {
+      return "\"name\": \"" + escape(name) + "\", \"labels\": {"
+          + labels.entrySet().stream()
+              .map(e -> "\"" + escape(e.getKey()) + "\": \"" + escape(e.getValue()) + "\"")
+              .collect(Collectors.joining(", "))
+          + "}";
+    }
+  }
+
+  private static String escape(String s) {
+    return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String seconds(long nanos) {
+    return String.format(Locale.ROOT, "%.6f", nanos / 1e9d);
+  }
+
+  /**
+   * A histogram of durations.
+   */
+  public static class Timer {
+    private static final Timer NOOP = new Timer();
+
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+    private final LongAccumulator maxNanos;
+
+    private Timer() {
+      buckets = new LongAdder[BUCKETS.size()];
+      for (int i = 0; i < buckets.length; ++i) {
+        buckets[i] = new LongAdder();
+      }
+      count = new LongAdder();
+      sumNanos = new LongAdder();
+      maxNanos = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * @return the value to give to {@link #stop(long)}
+     */
+    public long start() {
+      return this == NOOP ? 0 : System.nanoTime();
+    }
+
+    public void stop(long start) {
+      if (this != NOOP) {
+        record(System.nanoTime() - start);
+      }
+    }
+
+    public void record(long nanos) {
+      if (this == NOOP) {
+        return;
+      }
+      final double seconds = nanos / 1e9d;
+      for (int i = 0; i < buckets.length; ++i) {
+        if (seconds <= BUCKETS.get(i)) {
+          buckets[i].increment();
+          break;
+        }
+      }
+      count.increment();
+      sumNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+    }
+  }
+
+  /**
+   * A value that only goes up.
+   */
+  public static class Counter {
+    private static final Counter NOOP = new Counter();
+
+    private final LongAdder value = new LongAdder();
+
+    public void add(long delta) {
+      if (this != NOOP) {
+        value.add(delta);
+      }
+    }
+
+    public void increment() {
+      add(1);
+    }
+  }
+
+  /**
+   * A value that is set, such as a size or a depth.
+   */
+  public static class Gauge {
+    private static final Gauge NOOP = new Gauge();
+
+    private volatile long value;
+
+    public void set(long value) {
+      if (this != NOOP) {
+        this.value = value;
+      }
+    }
+  }
+
+  /**
+   * The path prefix of the files to write, {@code null} iff disabled.
+   */
+  private final Path prefix;
+  private final Map<Series, Timer> timers;
+  private final Map<Series, Counter> counters;
+  private final Map<Series, Gauge> gauges;
+
+  Metrics(String prefix) {
+    this.prefix = prefix == null ? null : Path.of(prefix);
+    timers = new ConcurrentHashMap<>();
+    counters = new ConcurrentHashMap<>();
+    gauges = new ConcurrentHashMap<>();
+  }
+
+  public boolean isEnabled() {
+    return prefix != null;
+  }
+
+  /**
+   * @param labelPairs label names and values, alternating
+   */
+  public Timer timer(String name, String... labelPairs) {
+    if (!isEnabled()) {
+      return Timer.NOOP;
+    }
+    return timers.computeIfAbsent(Series.of(name, labelPairs), s -> new Timer());
+  }
+
+  /**
+   * @param labelPairs label names and values, alternating
+   */
+  public Counter counter(String name, String... labelPairs) {
+    if (!isEnabled()) {
+      return Counter.NOOP;
+    }
+    return counters.computeIfAbsent(Series.of(name, labelPairs), s -> new Counter());
+  }
+
+  /**
+   * @param labelPairs label names and values, alternating
+   */
+  public Gauge gauge(String name, String... labelPairs) {
+    if (!isEnabled()) {
+      return Gauge.NOOP;
+    }
+    return gauges.computeIfAbsent(Series.of(name, labelPairs), s -> new Gauge());
+  }
+
+  private static <T> ImmutableList<Map.Entry<Series, T>> sorted(Map<Series, T> metrics) {
+    return metrics.entrySet().stream()
+        .sorted(Comparator.comparing((Map.Entry<Series, T> e) -> e.getKey().name())
+            .thenComparing(e -> e.getKey().labels().toString()))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  String toPrometheus() {
+    final StringBuilder out = new StringBuilder();
+    String lastName = "";
+    for (Map.Entry<Series, Timer> entry : sorted(timers)) {
+      final Series series = entry.getKey();
+      final Timer timer = entry.getValue();
+      if (!series.name().equals(lastName)) {
+        out.append("# TYPE ").append(series.name()).append(" histogram\n");
+        lastName = series.name();
+      }
+      long cumulated = 0;
+      for (int i = 0; i < BUCKETS.size(); ++i) {
+        cumulated += timer.buckets[i].sum();
+        out.append(series.prometheus("_bucket", "le=\"" + BUCKETS.get(i) + "\"")).append(' ')
+            .append(cumulated).append('\n');
+      }
+      out.append(series.prometheus("_bucket", "le=\"+Inf\"")).append(' ')
+          .append(timer.count.sum()).append('\n');
+      out.append(series.prometheus("_sum", "")).append(' ')
+          .append(seconds(timer.sumNanos.sum())).append('\n');
+      out.append(series.prometheus("_count", "")).append(' ').append(timer.count.sum())
+          .append('\n');
+    }
+    for (Map.Entry<Series, Counter> entry : sorted(counters)) {
+      final Series series = entry.getKey();
+      if (!series.name().equals(lastName)) {
+        out.append("# TYPE ").append(series.name()).append(" counter\n");
+        lastName = series.name();
+      }
+      out.append(series.prometheus("", "")).append(' ').append(entry.getValue().value.sum())
+          .append('\n');
+    }
+    for (Map.Entry<Series, Gauge> entry : sorted(gauges)) {
+      final Series series = entry.getKey();
+      if (!series.name().equals(lastName)) {
+        out.append("# TYPE ").append(series.name()).append(" gauge\n");
+        lastName = series.name();
+      }
+      out.append(series.prometheus("", "")).append(' ').append(entry.getValue().value)
+          .append('\n');
+    }
+    return out.toString();
+  }
+
+  String toJson() {
+    final String timersJson = sorted(timers).stream().map(e -> {
+      final Timer t = e.getValue();
+      final long count = t.count.sum();
+      return "{" + e.getKey().json() + ", \"count\": " + count + ", \"sumSeconds\": "
+          + seconds(t.sumNanos.sum()) + ", \"meanSeconds\": "
+          + seconds(count == 0 ? 0 : t.sumNanos.sum() / count) + ", \"maxSeconds\": "
+          + seconds(t.maxNanos.get()) + "}";
+    }).collect(Collectors.joining(",\n    "));
+    final String countersJson = sorted(counters).stream()
+        .map(e -> "{" + e.getKey().json() + ", \"value\": " + e.getValue().value.sum() + "}")
+        .collect(Collectors.joining(",\n    "));
+    final String gaugesJson = sorted(gauges).stream()
+        .map(e -> "{" + e.getKey().json() + ", \"value\": " + e.getValue().value + "}")
+        .collect(Collectors.joining(",\n    "));
+    return "{\n  \"timers\": [\n    " + timersJson + "\n  ],\n  \"counters\": [\n    "
+        + countersJson + "\n  ],\n  \"gauges\": [\n    " + gaugesJson + "\n  ]\n}\n";
+  }
+
+  /**
+   * Writes the JSON report and the Prometheus file, if enabled.
+   */
+  public void write() throws IOException {
+    if (!isEnabled()) {
+      return;
+    }
+    final Path json = Path.of(prefix + ".json");
+    final Path prometheus = Path.of(prefix + ".prom");
+    Files.writeString(json, toJson());
+    Files.writeString(prometheus, toPrometheus());
+    LOGGER.info("Wrote metrics to {} and {}.", json, prometheus);
+  }
+}
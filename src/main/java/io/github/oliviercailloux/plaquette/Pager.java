@@ -0,0 +1,208 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import ebx.ebx_dataservices.StandardException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Iterates over the entities matching a predicate, fetching them one page at a time and fetching
+ * the next page in the background while the current one is being consumed.
+ * <p>
+ * As the service does not paginate, pages are obtained by splitting on id prefixes: a slice of ids
+ * sharing a prefix whose count exceeds the page size is split into the id equal to the prefix and
+ * one slice per possible next character; consecutive small slices are grouped into one page. Should
+ * the ids use characters outside the expected ones (detected as counts that do not add up), or be
+ * longer than expected, the slice is fetched as a single, larger page.
+ * </p>
+ * <p>
+ * The counts of the slices that split a slice are requested concurrently, so that each level of
+ * splitting (including the levels of a prefix common to all ids, which have a single non-empty
+ * slice) costs about one round trip. The fetching task takes over the counts that the executor has
+ * not started, thus, needs no free thread.
+ * </p>
+ */
+class Pager<T> implements Iterator<T> {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(Pager.class);
+
+  /**
+   * The characters that ids may use, in increasing order.
+   */
+  private static final String ID_CHARACTERS =
+      "-.0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+  /**
+   * Beyond this length, a prefix is not split any more.
+   */
+  private static final int MAX_PREFIX_LENGTH = 64;
+
+  @FunctionalInterface
+  static interface Counter {
+    int count(String predicate) throws StandardException;
+  }
+
+  /**
+   * @param exact iff this slice is only about the id equal to the prefix
+   */
+  private static record Slice(String prefix, boolean exact, int count) {
+  }
+
+  private final String predicate;
+  private final String idFieldName;
+  private final int pageSize;
+  private final Counter counter;
+  private final Coalescer.PredicateQuery<T> query;
+  private final ExecutorService executor;
+
+  /**
+   * Accessed only by the page fetching tasks, which run one at a time.
+   */
+  private final Deque<Slice> slices;
+
+  private Iterator<T> current;
+  private Future<Optional<ImmutableList<T>>> next;
+
+  /**
+   * @param predicate may be empty, meaning all entities
+   */
+  Pager(String predicate, String idFieldName, int pageSize, Counter counter,
+      Coalescer.PredicateQuery<T> query, ExecutorService executor) {
+    checkArgument(pageSize >= 1);
+    this.predicate = predicate;
+    this.idFieldName = idFieldName;
+    this.pageSize = pageSize;
+    this.counter = counter;
+    this.query = query;
+    this.executor = executor;
+    slices = new ArrayDeque<>();
+    slices.push(new Slice("", false, -1));
+    current = Collections.emptyIterator();
+    next = executor.submit(this::fetchNextPage);
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!current.hasNext()) {
+      if (next == null) {
+        return false;
+      }
+      final Optional<ImmutableList<T>> page;
+      try {
+        page = StandardFutures.get(next);
+      } catch (StandardException e) {
+        next = null;
+        throw new UncheckedStandardException(e);
+      }
+      if (page.isEmpty()) {
+        next = null;
+        return false;
+      }
+      current = page.get().iterator();
+      next = executor.submit(this::fetchNextPage);
+    }
+    return true;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  private String restrict(String clause) {
+    return predicate.isEmpty() ? clause : "(" + predicate + ") and (" + clause + ")";
+  }
+
+  private String clause(Slice slice) {
+    return slice.exact() ? idFieldName + " = '" + slice.prefix() + "'"
+        : "starts-with(" + idFieldName + ", '" + slice.prefix() + "')";
+  }
+
+  private int count(Slice slice) throws StandardException {
+    return slice.count() >= 0 ? slice.count() : counter.count(restrict(clause(slice)));
+  }
+
+  /**
+   * Counts the given slices concurrently, running on the calling thread the counts that the
+   * executor has not started yet.
+   */
+  private ImmutableList<Slice> counted(List<Slice> toCount) throws StandardException {
+    final ImmutableList<FutureTask<Slice>> tasks = toCount.stream()
+        .map(s -> new FutureTask<>(() -> new Slice(s.prefix(), s.exact(), count(s))))
+        .collect(ImmutableList.toImmutableList());
+    tasks.forEach(executor::execute);
+    final ImmutableList.Builder<Slice> counted = ImmutableList.builder();
+    for (FutureTask<Slice> task : tasks) {
+      /* Does nothing if the task has started. */
+      task.run();
+      counted.add(StandardFutures.get(task));
+    }
+    return counted.build();
+  }
+
+  private Optional<ImmutableList<T>> fetchNextPage() throws StandardException {
+    while (!slices.isEmpty()) {
+      final Slice slice = slices.pop();
+      final int count = count(slice);
+      if (count == 0) {
+        continue;
+      }
+      if (count <= pageSize) {
+        final List<Slice> grouped = new ArrayList<>();
+        grouped.add(slice);
+        int total = count;
+        while (!slices.isEmpty() && slices.peek().count() >= 0
+            && total + slices.peek().count() <= pageSize) {
+          final Slice added = slices.pop();
+          grouped.add(added);
+          total += added.count();
+        }
+        final String clauses =
+            grouped.stream().map(this::clause).collect(Collectors.joining(" or "));
+        return Optional.of(query.select(restrict(clauses)));
+      }
+      if (slice.prefix().length() >= MAX_PREFIX_LENGTH) {
+        LOGGER.warn("Ids starting with '{}' are too long to split, fetching {} at once.",
+            slice.prefix(), count);
+        return Optional.of(query.select(restrict(clause(slice))));
+      }
+      final List<Slice> toCount = new ArrayList<>();
+      if (!slice.prefix().isEmpty()) {
+        toCount.add(new Slice(slice.prefix(), true, -1));
+      }
+      for (char c : ID_CHARACTERS.toCharArray()) {
+        toCount.add(new Slice(slice.prefix() + c, false, -1));
+      }
+      final ImmutableList<Slice> children = counted(toCount);
+      final int childrenCount = children.stream().mapToInt(Slice::count).sum();
+      if (childrenCount != count) {
+        LOGGER.warn("Ids starting with '{}' use unexpected characters, fetching {} at once.",
+            slice.prefix(), count);
+        return Optional.of(query.select(restrict(clause(slice))));
+      }
+      for (Slice child : children.reverse()) {
+        if (child.count() >= 1) {
+          slices.push(child);
+        }
+      }
+    }
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,37 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Renders independent parts of a document (such as the sections about courses) concurrently, on
+ * the common fork/join pool, and returns them in their original order, so that the document is the
+ * same as when rendered sequentially.
+ * <p>
+ * Each part must be rendered with an emitter of its own (see {@link DocumentEmitter#newFragment()})
+ * and the renderer must only read shared state. Callers decide whether to render concurrently;
+ * the system property {@code plaquette.fragments.parallel}, set to {@code false}, makes them
+ * render sequentially by default.
+ * </p>
+ */
+class ParallelFragments {
+  public static final String PROPERTY = "plaquette.fragments.parallel";
+
+  static boolean isParallelByDefault() {
+    return Boolean.parseBoolean(System.getProperty(PROPERTY, "true"));
+  }
+
+  /**
+   * @param parallel {@code false} to render on the calling thread, one part after the other
+   */
+  static <T> ImmutableList<String> render(List<T> parts, boolean parallel,
+      Function<? super T, String> renderer) {
+    final Stream<T> stream = parallel ? parts.parallelStream() : parts.stream();
+    return stream.map(renderer).collect(ImmutableList.toImmutableList());
+  }
+
+  private ParallelFragments() {
+  }
+}
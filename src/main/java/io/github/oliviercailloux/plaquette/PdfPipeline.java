@@ -0,0 +1,146 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.base.VerifyException;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.stream.StreamSource;
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FopFactoryBuilder;
+import org.apache.fop.apps.MimeConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transforms DocBook documents to PDF, through XSL-FO, using a stylesheet compiled once and a FOP
+ * factory created once (which keeps the fonts and hyphenation patterns it loads).
+ * <p>
+ * The font metrics are also kept on disk from one run to the next, if a cache file is given.
+ * </p>
+ * <p>
+ * Safe for use by several threads: each transformation uses its own transformer, obtained from
+ * the shared compiled stylesheet, and its own FOP processor, obtained from the shared factory.
+ * </p>
+ */
+public class PdfPipeline implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(PdfPipeline.class);
+
+  /**
+   * The system property that indicates the font metrics cache file; {@code fop-fonts.cache} by
+   * default.
+   */
+  public static final String FONT_CACHE_PROPERTY = "plaquette.fop.fontCache";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The XSLT processor that the publish library uses for DocBook (through
+   * {@code DocBookTransformer.usingDefaultFactory()}), named rather than found by
+   * {@link TransformerFactory#newInstance()}, which may pick the JDK one, XSLTC, that does not
+   * handle the DocBook XSL stylesheets the same way.
+   */
+  private static final String FACTORY_CLASS = "org.apache.xalan.processor.TransformerFactoryImpl";
+
+  public static PdfPipeline usingDefaults() {
+    final Path fontCache = Path.of(System.getProperty(FONT_CACHE_PROPERTY, "fop-fonts.cache"));
+    return using(PdfPipeline.class.getResource("dauphine.xsl"), Optional.of(fontCache));
+  }
+
+  /**
+   * Compiles the given XSL-FO stylesheet (including its imports, which may have to be downloaded)
+   * and creates the FOP factory.
+   */
+  public static PdfPipeline using(URL foStylesheet, Optional<Path> fontCache) {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    final Templates templates;
+    try {
+      templates = TransformerFactory.newInstance(FACTORY_CLASS, PdfPipeline.class.getClassLoader())
+          .newTemplates(new StreamSource(foStylesheet.toString()));
+    } catch (TransformerConfigurationException e) {
+      throw new VerifyException(e);
+    }
+    LOGGER.info("Compiled {} in {}.", foStylesheet, stopwatch);
+
+    final URI baseUri = Path.of("").toAbsolutePath().toUri();
+    final FopFactory fopFactory = new FopFactoryBuilder(baseUri).build();
+    fontCache.ifPresent(f -> fopFactory.getFontManager().setCacheFile(f.toUri()));
+    return new PdfPipeline(templates, fopFactory, fontCache.isPresent());
+  }
+
+  private final Templates templates;
+  private final FopFactory fopFactory;
+  private final boolean cacheFonts;
+
+  private PdfPipeline(Templates templates, FopFactory fopFactory, boolean cacheFonts) {
+    this.templates = templates;
+    this.fopFactory = fopFactory;
+    this.cacheFonts = cacheFonts;
+  }
+
+  public void toPdf(String docBook, Path pdf) {
+    final Stopwatch stopwatch = Stopwatch.createStarted();
+    try (FileChannel channel = FileChannel.open(pdf, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        OutputStream out =
+            new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+      toPdf(docBook, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    LOGGER.info("Wrote {} in {}.", pdf, stopwatch);
+  }
+
+  public void toPdf(String docBook, OutputStream pdf) {
+    toPdf(new StreamSource(new StringReader(docBook)), pdf);
+  }
+
+  /**
+   * Transforms the given DocBook document as it is read: the XSL-FO events go to FOP as they are
+   * produced, without building the XSL-FO document.
+   *
+   * @param docBook any source, such as a stream or a {@link javax.xml.transform.sax.SAXSource}
+   */
+  public void toPdf(Source docBook, OutputStream pdf) {
+    try {
+      final Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, fopFactory.newFOUserAgent(), pdf);
+      final Transformer transformer = templates.newTransformer();
+      transformer.transform(docBook, new SAXResult(fop.getDefaultHandler()));
+    } catch (FOPException | TransformerException e) {
+      throw new VerifyException(e);
+    }
+  }
+
+  /**
+   * Saves the font metrics cache, if any.
+   */
+  @Override
+  public void close() {
+    if (cacheFonts) {
+      try {
+        fopFactory.getFontManager().saveCache();
+      } catch (FOPException e) {
+        LOGGER.warn("Could not save the font cache.", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import ebx.ebx_dataservices.StandardException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * One crawl of a program tree where every request is issued as soon as its ids are known.
+ * <p>
+ * Fetching happens on the executor; all the bookkeeping happens on the thread that calls
+ * {@link #crawl(Set)}, which therefore needs no synchronization. Each fetch task returns the
+ * continuation that integrates its results.
+ * </p>
+ */
+class PipelinedCrawl {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedCrawl.class);
+
+  private final Querier querier;
+  private final Consumer<? super Course> courseListener;
+  private final CompletionService<Runnable> completion;
+  private int outstanding;
+  private int roundTrips;
+  private int depth;
+
+  private final Set<String> programIdsRequested;
+  private final Set<String> courseIdsRequested;
+  private final Set<String> teacherIdsRequested;
+  private final Map<String, Program> programs;
+  private final Map<String, Course> courses;
+  private final Map<String, Person> teachers;
+
+  /**
+   * @param courseListener called with each course as it arrives, on the thread that crawls
+   */
+  PipelinedCrawl(Querier querier, Executor executor, Consumer<? super Course> courseListener) {
+    this.querier = querier;
+    this.courseListener = courseListener;
+    completion = new ExecutorCompletionService<>(executor);
+    outstanding = 0;
+    roundTrips = 0;
+    depth = 0;
+    programIdsRequested = new LinkedHashSet<>();
+    courseIdsRequested = new LinkedHashSet<>();
+    teacherIdsRequested = new LinkedHashSet<>();
+    programs = new LinkedHashMap<>();
+    courses = new LinkedHashMap<>();
+    teachers = new LinkedHashMap<>();
+  }
+
+  /**
+   * Returns when every request has completed, or throws as soon as one request fails, leaving the
+   * caller responsible for cancelling the remaining ones (typically by shutting down the
+   * executor).
+   */
+  Cacher crawl(Set<String> programIds) throws StandardException {
+    requestPrograms(programIds, 1);
+    while (outstanding > 0) {
+      final Runnable continuation = takeNext();
+      --outstanding;
+      continuation.run();
+    }
+    LOGGER.debug("Crawled {} programs, {} courses, {} teachers.", programs.size(), courses.size(),
+        teachers.size());
+    Cacher.recordCrawl("pipelined", depth, roundTrips, programs.size(), courses.size(),
+        teachers.size());
+    return Cacher.ordered(programIds, programs, courses, teachers);
+  }
+
+  private Runnable takeNext() throws StandardException {
+    final Future<Runnable> done;
+    try {
+      done = completion.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while crawling.", e);
+    }
+    return StandardFutures.get(done);
+  }
+
+  /**
+   * @param level the depth of these programs in the tree being crawled, starting at one
+   */
+  private void requestPrograms(Set<String> ids, int level) {
+    final ImmutableSet<String> newIds = Sets.difference(ids, programIdsRequested).immutableCopy();
+    if (newIds.isEmpty()) {
+      return;
+    }
+    programIdsRequested.addAll(newIds);
+    depth = Math.max(depth, level);
+    submit(() -> {
+      final ImmutableList<Program> fetched = querier.getPrograms(newIds);
+      return () -> receivePrograms(fetched, level);
+    });
+  }
+
+  private void submit(Callable<Runnable> fetch) {
+    ++outstanding;
+    ++roundTrips;
+    completion.submit(fetch);
+  }
+
+  private void receivePrograms(List<Program> fetched, int level) {
+    fetched.forEach(p -> programs.put(p.getProgramID(), p));
+    /* One request per parent, so that sibling subtrees are crawled independently. */
+    for (Program program : fetched) {
+      requestPrograms(
+          ImmutableSet.copyOf(program.getProgramStructure().getValue().getRefProgram()),
+          level + 1);
+    }
+    requestCourses(fetched.stream()
+        .flatMap(p -> p.getProgramStructure().getValue().getRefCourse().stream())
+        .collect(ImmutableSet.toImmutableSet()));
+  }
+
+  private void requestCourses(Set<String> ids) {
+    final ImmutableSet<String> newIds = Sets.difference(ids, courseIdsRequested).immutableCopy();
+    if (newIds.isEmpty()) {
+      return;
+    }
+    courseIdsRequested.addAll(newIds);
+    submit(() -> {
+      final ImmutableList<Course> fetched = querier.getCourses(newIds);
+      return () -> receiveCourses(fetched);
+    });
+  }
+
+  private void receiveCourses(List<Course> fetched) {
+    fetched.forEach(c -> courses.put(c.getCourseID(), c));
+    requestTeachers(fetched.stream().flatMap(c -> Cacher.getTeacherRefs(c).stream())
+        .collect(ImmutableSet.toImmutableSet()));
+    fetched.forEach(courseListener);
+  }
+
+  private void requestTeachers(Set<String> ids) {
+    final ImmutableSet<String> newIds = Sets.difference(ids, teacherIdsRequested).immutableCopy();
+    if (newIds.isEmpty()) {
+      return;
+    }
+    teacherIdsRequested.addAll(newIds);
+    submit(() -> {
+      final ImmutableList<Person> fetched = querier.getPersons(newIds);
+      return () -> fetched.forEach(p -> teachers.put(p.getPersonID(), p));
+    });
+  }
+}
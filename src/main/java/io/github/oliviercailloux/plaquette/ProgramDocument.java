@@ -0,0 +1,202 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import jakarta.xml.bind.JAXBElement;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+
+/**
+ * Writes the plaquette of any program found in a cache, following its structure: its sub-programs
+ * as sections (nested at most two levels deep), each program with its courses as sections one
+ * level below. A program reachable several times is written only where it is first reached.
+ * <p>
+ * Unlike {@link M1AltBuilder}, makes no assumption about the shape of the program or the content
+ * of its courses, besides what the schema mandates.
+ * </p>
+ */
+class ProgramDocument {
+  static ProgramDocument of(Cacher cache, String programId) {
+    return of(cache, programId, ParallelFragments.isParallelByDefault());
+  }
+
+  /**
+   * @param parallel whether to write the courses concurrently (see {@link ParallelFragments})
+   */
+  static ProgramDocument of(Cacher cache, String programId, boolean parallel) {
+    return new ProgramDocument(cache, cache.getProgram(programId), parallel);
+  }
+
+  private static <T> Optional<T> valueOpt(JAXBElement<T> element) {
+    return element == null ? Optional.empty() : Optional.of(element.getValue());
+  }
+
+  private static <F, T> Optional<T> valueOpt(JAXBElement<F> element,
+      Function<F, JAXBElement<T>> toFunction) {
+    return valueOpt(element).map(toFunction).flatMap(ProgramDocument::valueOpt);
+  }
+
+  static String name(Program program) {
+    return valueOpt(program.getProgramName(), n -> n.getFr())
+        .orElse(program.getProgramID());
+  }
+
+  static String name(Course course) {
+    return valueOpt(course.getCourseName(), n -> n.getFr()).orElse(course.getCourseID());
+  }
+
+  private static String names(Set<Person> teachers) {
+    return teachers.stream()
+        .map(t -> t.getGivenName().getValue() + " " + t.getFamilyName().getValue())
+        .collect(Collectors.joining("; "));
+  }
+
+  private final Cacher cache;
+
+  private final Program program;
+
+  private final boolean parallel;
+
+  private ProgramDocument(Cacher cache, Program program, boolean parallel) {
+    this.cache = cache;
+    this.program = program;
+    this.parallel = parallel;
+  }
+
+  private ImmutableList<Program> getSubPrograms(Program parent) {
+    return parent.getProgramStructure().getValue().getRefProgram().stream()
+        .filter(cache.getPrograms()::containsKey).map(cache::getProgram)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Returns the courses of the program and of its sub-programs, recursively, in order of first
+   * appearance.
+   */
+  private ImmutableList<Course> getAllCourses() {
+    final Set<Course> courses = new LinkedHashSet<>();
+    final Set<String> seen = new LinkedHashSet<>();
+    addAllCourses(program, courses, seen);
+    return ImmutableList.copyOf(courses);
+  }
+
+  private void addAllCourses(Program current, Set<Course> courses, Set<String> seen) {
+    if (!seen.add(current.getProgramID())) {
+      return;
+    }
+    courses.addAll(cache.getProgramCourses(current.getProgramID()).values());
+    for (Program subProgram : getSubPrograms(current)) {
+      addAllCourses(subProgram, courses, seen);
+    }
+  }
+
+  public void write(DocumentEmitter writer) {
+    writer.title(name(program));
+    writer.paragraph("Généré le "
+        + DateTimeFormatter.ofLocalizedDate(FormatStyle.LONG).withLocale(Locale.FRANCE)
+            .withZone(ZoneId.of("Europe/Paris")).format(Instant.now())
+        + " à partir des données de Dauphine.");
+
+    writeSummary(writer);
+    final Set<String> seen = new LinkedHashSet<>();
+    seen.add(program.getProgramID());
+    if (!cache.getProgramCourses(program.getProgramID()).isEmpty()) {
+      writer.heading(2, name(program));
+      writeCourses(writer, program, 3);
+    }
+    for (Program subProgram : getSubPrograms(program)) {
+      writeProgram(writer, subProgram, 2, seen);
+    }
+  }
+
+  void writeSummary(DocumentEmitter writer) {
+    writer.heading(2, "Vue d’ensemble");
+    final ImmutableList<Course> courses = getAllCourses();
+    final ImmutableList.Builder<ImmutableList<String>> summaryBuilder = ImmutableList.builder();
+    for (Course course : courses) {
+      final ImmutableSet<Person> teachers = cache.getCourseTeachers(course.getCourseID()).values();
+      summaryBuilder.add(ImmutableList.of(name(course), names(teachers),
+          valueOpt(course.getEcts()).orElse("")));
+    }
+    final boolean someMultipleTeachers = courses.stream()
+        .anyMatch(c -> cache.getCourseTeachers(c.getCourseID()).size() >= 2);
+    final String resp =
+        someMultipleTeachers ? "Enseignant·e·s responsables" : "Enseignant·e responsable";
+    writer.table("6, 6, 1", ImmutableList.of("Cours", resp, "ECTS"), summaryBuilder.build());
+  }
+
+  private void writeProgram(DocumentEmitter writer, Program current, int level,
+      Set<String> seen) {
+    if (!seen.add(current.getProgramID())) {
+      return;
+    }
+    writer.heading(level, name(current));
+    writeCourses(writer, current, level + 1);
+    for (Program subProgram : getSubPrograms(current)) {
+      writeProgram(writer, subProgram, Math.min(level + 1, 3), seen);
+    }
+  }
+
+  /**
+   * Writes the courses of the given program, each as a fragment, generated concurrently if so
+   * configured.
+   */
+  private void writeCourses(DocumentEmitter writer, Program current, int level) {
+    final ImmutableList<Course> courses =
+        cache.getProgramCourses(current.getProgramID()).values().asList();
+    ParallelFragments.render(courses, parallel, course -> {
+      final DocumentEmitter courseWriter = writer.newFragment();
+      writeCourse(courseWriter, course, level);
+      return courseWriter.getContent();
+    }).forEach(writer::append);
+  }
+
+  /**
+   * @param level the level of the heading of the course, at most 4, as its sections are at level 5
+   */
+  void writeCourse(DocumentEmitter writer, Course course, int level) {
+    writer.heading(level, name(course));
+    final Optional<String> volume = valueOpt(course.getVolume()).filter(v -> !v.equals("0"));
+    String shortInfo = volume.map(v -> v + " h ; ").orElse("")
+        + valueOpt(course.getEcts()).orElse("?") + " ECTS";
+    if (course.getTeachingLang().equals(ImmutableList.of("en"))) {
+      shortInfo += " ; Dispensé en anglais";
+    }
+    writer.paragraph(shortInfo);
+    final ImmutableSet<Person> teachers = cache.getCourseTeachers(course.getCourseID()).values();
+    if (!teachers.isEmpty()) {
+      final String prefix =
+          teachers.size() == 1 ? "Enseignant·e responsable : " : "Enseignant·e·s responsables : ";
+      writer.paragraph(prefix + names(teachers));
+    }
+    writer.eol();
+    addOptionalSection(writer, "Prérequis recommandés",
+        valueOpt(course.getRecommendedPrerequisites(), Course.RecommendedPrerequisites::getFr));
+    addOptionalSection(writer, "Prérequis obligatoires",
+        valueOpt(course.getFormalPrerequisites(), Course.FormalPrerequisites::getFr));
+    addOptionalSection(writer, "Compétences à acquérir",
+        valueOpt(course.getLearningObjectives(), Course.LearningObjectives::getFr));
+    addOptionalSection(writer, "Contenu",
+        valueOpt(course.getCourseDescription(), Course.CourseDescription::getFr));
+    addOptionalSection(writer, "Références",
+        valueOpt(course.getSyllabus(), Course.Syllabus::getFr));
+    addOptionalSection(writer, "Évaluation",
+        valueOpt(course.getFormOfAssessment(), Course.FormOfAssessment::getFr));
+  }
+
+  private void addOptionalSection(DocumentEmitter writer, String title,
+      Optional<String> contentOpt) {
+    contentOpt.ifPresent(c -> writer.htmlSection(title, c));
+  }
+}
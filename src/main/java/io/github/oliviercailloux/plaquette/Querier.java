@@ -1,25 +1,51 @@
 package io.github.oliviercailloux.plaquette;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Verify.verify;
 
+import com.google.common.base.Suppliers;
+import com.google.common.base.Utf8;
 import com.google.common.base.Verify;
 import com.google.common.base.VerifyException;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import ebx.ebx_dataservices.EbxDataservices;
-import ebx.ebx_dataservices.EbxDataservicesService;
 import ebx.ebx_dataservices.StandardException;
 import io.github.oliviercailloux.jaris.exceptions.Unchecker;
 import io.github.oliviercailloux.publish.JaxbHelper;
 import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.ws.WebServiceException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import schemas.ebx.dataservices_1.CountCourseRequestType;
+import schemas.ebx.dataservices_1.CountCourseResponseType;
+import schemas.ebx.dataservices_1.CountMentionRequestType;
+import schemas.ebx.dataservices_1.CountMentionResponseType;
+import schemas.ebx.dataservices_1.CountPersonRequestType;
+import schemas.ebx.dataservices_1.CountPersonResponseType;
+import schemas.ebx.dataservices_1.CountProgramRequestType;
+import schemas.ebx.dataservices_1.CountProgramResponseType;
 import schemas.ebx.dataservices_1.CourseType.Root.Course;
 import schemas.ebx.dataservices_1.MentionType.Root.Mention;
 import schemas.ebx.dataservices_1.ObjectFactory;
@@ -38,28 +64,316 @@ public class Querier {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = LoggerFactory.getLogger(Querier.class);
 
+  public static final int DEFAULT_MAX_IDS_PER_CHUNK = 100;
+
+  /**
+   * In bytes (UTF-8).
+   */
+  public static final int DEFAULT_MAX_PREDICATE_LENGTH = 8000;
+
+  public static final int DEFAULT_PARALLELISM = 4;
+
+  public static final long DEFAULT_CACHE_SIZE = 10_000;
+
+  public static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(10);
+
+  private static final String OR_SEPARATOR = " or ";
+
+  public static enum EntityKind {
+    MENTION, PROGRAM, COURSE, PERSON
+  }
+
+  public static class Builder {
+    private int maxIdsPerChunk;
+    private int maxPredicateLength;
+    private int parallelism;
+    private WireCapture capture;
+    private Optional<Transport> transport;
+    private Optional<EbxDataservices> dataservices;
+    private long cacheSize;
+    private final Map<EntityKind, Duration> cacheTtls;
+
+    private Builder() {
+      maxIdsPerChunk = DEFAULT_MAX_IDS_PER_CHUNK;
+      maxPredicateLength = DEFAULT_MAX_PREDICATE_LENGTH;
+      parallelism = DEFAULT_PARALLELISM;
+      capture = WireCapture.fromSystemProperties();
+      transport = Optional.empty();
+      dataservices = Optional.empty();
+      cacheSize = Long.getLong("plaquette.cache.size", DEFAULT_CACHE_SIZE);
+      cacheTtls = new EnumMap<>(EntityKind.class);
+      final Duration ttl = Duration.parse(
+          System.getProperty("plaquette.cache.ttl", DEFAULT_CACHE_TTL.toString()));
+      for (EntityKind kind : EntityKind.values()) {
+        final String kindTtl =
+            System.getProperty("plaquette.cache.ttl." + kind.toString().toLowerCase(Locale.ROOT));
+        cacheTtls.put(kind, kindTtl == null ? ttl : Duration.parse(kindTtl));
+      }
+    }
+
+    /**
+     * Sets the bounds of the predicates sent when looking up sets of ids. An id set that does not
+     * fit within these bounds is split into several predicates, each of which respects both
+     * bounds (except for a single id that is too long on its own).
+     *
+     * @param maxIdsPerChunk at least one
+     * @param maxPredicateLength in bytes (UTF-8), at least one
+     */
+    public Builder chunking(int maxIdsPerChunk, int maxPredicateLength) {
+      checkArgument(maxIdsPerChunk >= 1);
+      checkArgument(maxPredicateLength >= 1);
+      this.maxIdsPerChunk = maxIdsPerChunk;
+      this.maxPredicateLength = maxPredicateLength;
+      return this;
+    }
+
+    /**
+     * @param parallelism the maximal number of chunks or pages being queried in the background at
+     *        the same time, at least one
+     */
+    public Builder parallelism(int parallelism) {
+      checkArgument(parallelism >= 1);
+      this.parallelism = parallelism;
+      return this;
+    }
+
+    /**
+     * @param capture defaults to {@link WireCapture#fromSystemProperties()}
+     */
+    public Builder capture(WireCapture capture) {
+      this.capture = checkNotNull(capture);
+      return this;
+    }
+
+    /**
+     * @param transport defaults to {@link Transport#fromSystemProperties()}, created when building
+     *        (only if no data services are given, as it sets system properties)
+     */
+    public Builder transport(Transport transport) {
+      this.transport = Optional.of(transport);
+      return this;
+    }
+
+    /**
+     * Sets data services to use instead of those reached through the transport, such as a fake
+     * one in tests.
+     */
+    Builder dataservices(EbxDataservices dataservices) {
+      this.dataservices = Optional.of(dataservices);
+      return this;
+    }
+
+    /**
+     * Sets how many entities of each kind may be kept in memory (see {@link QueryCache}), which
+     * defaults to the system property {@code plaquette.cache.size}, or
+     * {@link #DEFAULT_CACHE_SIZE}.
+     *
+     * The entities returned by the lookups that go through the cache may be shared with other
+     * callers, and must thus not be modified.
+     *
+     * @param cacheSize zero to keep nothing
+     */
+    public Builder cacheSize(long cacheSize) {
+      checkArgument(cacheSize >= 0);
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    /**
+     * Sets how long the entities of the given kind are kept, which defaults to the system property
+     * {@code plaquette.cache.ttl.<kind>} (such as {@code plaquette.cache.ttl.person}), or
+     * {@code plaquette.cache.ttl}, or {@link #DEFAULT_CACHE_TTL}.
+     *
+     * @param ttl zero to keep nothing
+     */
+    public Builder cacheTtl(EntityKind kind, Duration ttl) {
+      checkArgument(!ttl.isNegative());
+      cacheTtls.put(kind, ttl);
+      return this;
+    }
+
+    public Querier build() {
+      final Optional<Transport> resolved = transport.isEmpty() && dataservices.isEmpty()
+          ? Optional.of(Transport.fromSystemProperties())
+          : transport;
+      return new Querier(this, resolved);
+    }
+  }
+
+  /**
+   * The instruments of one operation of the service: latency and number of entities received. The
+   * sizes of the messages are counted by the {@link Transport}.
+   */
+  private static class Instruments {
+    private final Metrics.Timer latency;
+    private final Metrics.Counter entities;
+
+    Instruments(String operation) {
+      final Metrics metrics = Metrics.get();
+      latency = metrics.timer("querier_request_seconds", "operation", operation);
+      entities = metrics.counter("querier_entities_total", "operation", operation);
+    }
+  }
+
   public static Querier instance() {
-    return new Querier();
+    return builder().build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
   }
 
-  private final EbxDataservices dataservices;
+  /**
+   * Created when first used, as creating the ports parses the WSDL.
+   */
+  private final Supplier<EbxDataservices> dataservices;
+
+  /**
+   * Created when first used, as it is only used for debug logging.
+   */
+  private final Supplier<JaxbHelper> helper;
+
+  private final Supplier<SoapStreamer> streamer;
+
+  /**
+   * Whether the selections by {@code forEach} methods go through the streamer, which bypasses the
+   * capture and the data services given to the builder.
+   */
+  private final boolean streaming;
 
-  private final JaxbHelper helper;
+  private final Coalescer<Mention> mentionsInFlight;
+  private final Coalescer<Program> programsInFlight;
+  private final Coalescer<Course> coursesInFlight;
+  private final Coalescer<Person> personsInFlight;
 
-  private Querier() {
-    dataservices = new EbxDataservicesService().getEbxDataservices();
-    helper = JaxbHelper.using(Unchecker.wrappingWith(VerifyException::new)
-        .getUsing(() -> JAXBContext.newInstance(CountCourseRequestType.class.getPackageName())));
+  private final QueryCache<Mention> mentionsKept;
+  private final QueryCache<Program> programsKept;
+  private final QueryCache<Course> coursesKept;
+  private final QueryCache<Person> personsKept;
+
+  private final int maxIdsPerChunk;
+
+  private final int maxPredicateLength;
+
+  private final Instruments selectMentionInstruments;
+  private final Instruments selectProgramInstruments;
+  private final Instruments selectCourseInstruments;
+  private final Instruments selectPersonInstruments;
+  private final Instruments countMentionInstruments;
+  private final Instruments countProgramInstruments;
+  private final Instruments countCourseInstruments;
+  private final Instruments countPersonInstruments;
+
+  /**
+   * Runs the chunks of lookups and fetches pages in advance; its threads are daemons, so that a
+   * querier needs no closing.
+   */
+  private final ExecutorService executor;
+
+  /**
+   * @param transport present iff no data services are given or a transport was set
+   */
+  private Querier(Builder builder, Optional<Transport> transport) {
+    final WireCapture capture = builder.capture;
+    final Optional<EbxDataservices> given = builder.dataservices;
+    dataservices = Suppliers.memoize(
+        () -> capture.wrap(() -> given.orElseGet(() -> transport.orElseThrow().pooled())));
+    /* Used only when streaming, thus, when no data services are given. */
+    streamer = Suppliers.memoize(() -> new SoapStreamer(transport.orElseThrow()));
+    streaming = capture.getMode() == WireCapture.Mode.OFF && given.isEmpty();
+    helper = Suppliers.memoize(() -> JaxbHelper.using(Unchecker.wrappingWith(VerifyException::new)
+        .getUsing(() -> JAXBContext.newInstance(CountCourseRequestType.class.getPackageName()))));
+    mentionsInFlight = new Coalescer<>(Mention::getMentionID);
+    programsInFlight = new Coalescer<>(Program::getProgramID);
+    coursesInFlight = new Coalescer<>(Course::getCourseID);
+    personsInFlight = new Coalescer<>(Person::getPersonID);
+    mentionsKept = new QueryCache<>(Mention::getMentionID, builder.cacheSize,
+        builder.cacheTtls.get(EntityKind.MENTION));
+    programsKept = new QueryCache<>(Program::getProgramID, builder.cacheSize,
+        builder.cacheTtls.get(EntityKind.PROGRAM));
+    coursesKept = new QueryCache<>(Course::getCourseID, builder.cacheSize,
+        builder.cacheTtls.get(EntityKind.COURSE));
+    personsKept = new QueryCache<>(Person::getPersonID, builder.cacheSize,
+        builder.cacheTtls.get(EntityKind.PERSON));
+    maxIdsPerChunk = builder.maxIdsPerChunk;
+    maxPredicateLength = builder.maxPredicateLength;
+    selectMentionInstruments = new Instruments("selectMention");
+    selectProgramInstruments = new Instruments("selectProgram");
+    selectCourseInstruments = new Instruments("selectCourse");
+    selectPersonInstruments = new Instruments("selectPerson");
+    countMentionInstruments = new Instruments("countMention");
+    countProgramInstruments = new Instruments("countProgram");
+    countCourseInstruments = new Instruments("countCourse");
+    countPersonInstruments = new Instruments("countPerson");
+    executor = Executors.newFixedThreadPool(builder.parallelism,
+        new ThreadFactoryBuilder().setNameFormat("querier-%d").setDaemon(true).build());
   }
 
-  private String toOrPredicate(String idFieldName, Set<String> ids) {
-    final ImmutableList<String> predicates = ids.stream().map(s -> idFieldName + " = '" + s + "'")
-        .collect(ImmutableList.toImmutableList());
-    final String predicate = predicates.stream().collect(Collectors.joining(" or "));
-    return predicate;
+  /**
+   * @return the predicates matching, together, exactly the given ids; empty iff no ids are given.
+   */
+  static ImmutableList<String> toOrPredicates(String idFieldName, Set<String> ids,
+      int maxIdsPerChunk, int maxPredicateLength) {
+    final ImmutableList.Builder<String> predicates = ImmutableList.builder();
+    final StringBuilder current = new StringBuilder();
+    int currentCount = 0;
+    int currentLength = 0;
+    for (String id : ids) {
+      final String term = idFieldName + " = '" + id + "'";
+      final int termLength = Utf8.encodedLength(term);
+      final boolean full = currentCount == maxIdsPerChunk
+          || currentLength + OR_SEPARATOR.length() + termLength > maxPredicateLength;
+      if (currentCount >= 1 && full) {
+        predicates.add(current.toString());
+        current.setLength(0);
+        currentCount = 0;
+        currentLength = 0;
+      }
+      if (currentCount >= 1) {
+        current.append(OR_SEPARATOR);
+        currentLength += OR_SEPARATOR.length();
+      }
+      current.append(term);
+      currentLength += termLength;
+      ++currentCount;
+    }
+    if (currentCount >= 1) {
+      predicates.add(current.toString());
+    }
+    return predicates.build();
   }
 
-  private <K> ImmutableList<K> reorder(Set<String> orderedIds, ImmutableList<K> matches,
+  /**
+   * @return the entities found (a subset of those searched for), in the same ordering.
+   */
+  private <K> ImmutableList<K> selectByIds(String idFieldName, Set<String> ids,
+      Coalescer.PredicateQuery<K> query, Function<K, String> getId) throws StandardException {
+    final ImmutableList<String> predicates =
+        toOrPredicates(idFieldName, ids, maxIdsPerChunk, maxPredicateLength);
+    final ImmutableList<K> matches;
+    if (predicates.isEmpty()) {
+      matches = ImmutableList.of();
+    } else if (predicates.size() == 1) {
+      matches = query.select(Iterables.getOnlyElement(predicates));
+    } else {
+      LOGGER.debug("Looking up {} ids in {} chunks.", ids.size(), predicates.size());
+      final ImmutableList<Future<ImmutableList<K>>> futures = predicates.stream()
+          .map(p -> executor.submit(() -> query.select(p)))
+          .collect(ImmutableList.toImmutableList());
+      final ImmutableList.Builder<K> matchesBuilder = ImmutableList.builder();
+      try {
+        for (Future<ImmutableList<K>> future : futures) {
+          matchesBuilder.addAll(StandardFutures.get(future));
+        }
+      } finally {
+        futures.forEach(f -> f.cancel(true));
+      }
+      matches = matchesBuilder.build();
+    }
+    return reorder(ids, matches, getId);
+  }
+
+  static <K> ImmutableList<K> reorder(Set<String> orderedIds, ImmutableList<K> matches,
       Function<K, String> getId) {
     final ImmutableBiMap<String, K> matchesFromIds =
         matches.stream().collect(ImmutableBiMap.toImmutableBiMap(getId, Function.identity()));
@@ -69,25 +383,112 @@ public class Querier {
   }
 
   public ImmutableList<Mention> getMentions(String predicate) throws StandardException {
+    return mentionsKept.select(predicate, p -> mentionsInFlight.select(p, this::selectMentions));
+  }
+
+  /**
+   * Streams a selection, recording it as the other selections of that operation are: the latency
+   * (which, here, includes the time the consumer takes) and the number of entities received.
+   */
+  private <T> void stream(String operation, JAXBElement<?> request, Class<T> entityType,
+      Instruments instruments, Consumer<? super T> consumer) throws StandardException {
+    final long start = instruments.latency.start();
+    try {
+      streamer.get().select(operation, request, entityType, t -> {
+        instruments.entities.increment();
+        consumer.accept(t);
+      });
+    } finally {
+      instruments.latency.stop(start);
+    }
+  }
+
+  private static SelectMentionRequestType selectMentionRequest(String predicate) {
     final SelectMentionRequestType request = new SelectMentionRequestType();
     request.setBranch("pvRefRof");
     request.setInstance("RefRof");
     request.setPredicate(predicate);
-    LOGGER.debug("Request: {}.", helper.toXml(new ObjectFactory().createSelectMention(request)));
-    final SelectMentionResponseType result = dataservices.selectMentionOperation(request);
-    LOGGER.debug("Result: {}.",
-        helper.toXml(new ObjectFactory().createSelectMentionResponse(result)));
-    return ImmutableList.copyOf(result.getData().getRoot().getMention());
+    return request;
+  }
+
+  /**
+   * Hands each mention matching the given predicate to the consumer as soon as it is read from
+   * the response, retaining none of them. When the exchanges are captured (see
+   * {@link WireCapture}), the response is read whole instead, so that it is recorded or replayed.
+   *
+   * @throws StandardException in case of SOAP fault
+   * @throws WebServiceException in case of transport error
+   */
+  public void forEachMention(String predicate, Consumer<? super Mention> consumer)
+      throws StandardException {
+    if (!streaming) {
+      selectMentions(predicate).forEach(consumer);
+      return;
+    }
+    stream("selectMentionOperation",
+        new ObjectFactory().createSelectMention(selectMentionRequest(predicate)), Mention.class,
+        selectMentionInstruments, consumer);
+  }
+
+  public int countMentions(String predicate) throws StandardException {
+    final CountMentionRequestType request = new CountMentionRequestType();
+    request.setBranch("pvRefRof");
+    request.setInstance("RefRof");
+    request.setPredicate(predicate);
+    final long start = countMentionInstruments.latency.start();
+    final CountMentionResponseType result;
+    try {
+      result = dataservices.get().countMentionOperation(request);
+    } finally {
+      countMentionInstruments.latency.stop(start);
+    }
+    return result.getCount().intValueExact();
+  }
+
+  /**
+   * Iterates over the mentions matching the given predicate, {@code pageSize} (approximately) at a
+   * time, fetching the next page in the background. The pages are not kept in the cache, so that
+   * a scan does not evict the entities kept for other lookups.
+   *
+   * @param predicate may be empty, meaning all mentions
+   * @return an iterator that throws {@link UncheckedStandardException} when a query fails
+   * @see Pager
+   */
+  public Iterator<Mention> getMentionsPaged(String predicate, int pageSize) {
+    return new Pager<>(predicate, "mentionID", pageSize, this::countMentions,
+        p -> mentionsInFlight.select(p, this::selectMentions), executor);
+  }
+
+  private ImmutableList<Mention> selectMentions(String predicate) throws StandardException {
+    final SelectMentionRequestType request = selectMentionRequest(predicate);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Request: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectMention(request)));
+    }
+    final long start = selectMentionInstruments.latency.start();
+    final SelectMentionResponseType result;
+    try {
+      result = dataservices.get().selectMentionOperation(request);
+    } finally {
+      selectMentionInstruments.latency.stop(start);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Result: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectMentionResponse(result)));
+    }
+    final ImmutableList<Mention> mentions =
+        ImmutableList.copyOf(result.getData().getRoot().getMention());
+    selectMentionInstruments.entities.add(mentions.size());
+    return mentions;
   }
 
   public ImmutableList<Mention> getMentions(Set<String> mentionIds) throws StandardException {
-    final ImmutableList<Mention> mentions = getMentions(toOrPredicate("mentionID", mentionIds));
-    return reorder(mentionIds, mentions, Mention::getMentionID);
+    return mentionsKept.select(mentionIds, remaining -> mentionsInFlight.select(remaining,
+        ids -> selectByIds("mentionID", ids, this::selectMentions, Mention::getMentionID)));
   }
 
   public Mention getMention(String mentionId) throws StandardException {
-    final String predicate = "mentionID = '" + mentionId + "'";
-    final List<Mention> mentions = getMentions(predicate);
+    final List<Mention> mentions = getMentions(ImmutableSet.of(mentionId));
     Verify.verify(mentions.size() == 1);
     final Mention mention = Iterables.getOnlyElement(mentions);
     Verify.verify(mention.getMentionID().equals(mentionId));
@@ -95,27 +496,95 @@ public class Querier {
   }
 
   public ImmutableList<Program> getPrograms(String predicate) throws StandardException {
+    return programsKept.select(predicate, p -> programsInFlight.select(p, this::selectPrograms));
+  }
+
+  private static SelectProgramRequestType selectProgramRequest(String predicate) {
     final SelectProgramRequestType request = new SelectProgramRequestType();
     request.setBranch("pvRefRof");
     request.setInstance("RefRof");
     request.setPredicate(predicate);
-    LOGGER.debug("Request: {}.", helper.toXml(new ObjectFactory().createSelectProgram(request)));
-    final SelectProgramResponseType result = dataservices.selectProgramOperation(request);
-    LOGGER.debug("Result: {}.",
-        helper.toXml(new ObjectFactory().createSelectProgramResponse(result)));
+    return request;
+  }
+
+  /**
+   * Hands each program matching the given predicate to the consumer as soon as it is read from
+   * the response, retaining none of them. When the exchanges are captured (see
+   * {@link WireCapture}), the response is read whole instead, so that it is recorded or replayed.
+   *
+   * @throws StandardException in case of SOAP fault
+   * @throws WebServiceException in case of transport error
+   */
+  public void forEachProgram(String predicate, Consumer<? super Program> consumer)
+      throws StandardException {
+    if (!streaming) {
+      selectPrograms(predicate).forEach(consumer);
+      return;
+    }
+    stream("selectProgramOperation",
+        new ObjectFactory().createSelectProgram(selectProgramRequest(predicate)), Program.class,
+        selectProgramInstruments, consumer);
+  }
+
+  public int countPrograms(String predicate) throws StandardException {
+    final CountProgramRequestType request = new CountProgramRequestType();
+    request.setBranch("pvRefRof");
+    request.setInstance("RefRof");
+    request.setPredicate(predicate);
+    final long start = countProgramInstruments.latency.start();
+    final CountProgramResponseType result;
+    try {
+      result = dataservices.get().countProgramOperation(request);
+    } finally {
+      countProgramInstruments.latency.stop(start);
+    }
+    return result.getCount().intValueExact();
+  }
+
+  /**
+   * Iterates over the programs matching the given predicate, {@code pageSize} (approximately) at a
+   * time, fetching the next page in the background. The pages are not kept in the cache, so that
+   * a scan does not evict the entities kept for other lookups.
+   *
+   * @param predicate may be empty, meaning all programs
+   * @return an iterator that throws {@link UncheckedStandardException} when a query fails
+   * @see Pager
+   */
+  public Iterator<Program> getProgramsPaged(String predicate, int pageSize) {
+    return new Pager<>(predicate, "programID", pageSize, this::countPrograms,
+        p -> programsInFlight.select(p, this::selectPrograms), executor);
+  }
+
+  private ImmutableList<Program> selectPrograms(String predicate) throws StandardException {
+    final SelectProgramRequestType request = selectProgramRequest(predicate);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Request: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectProgram(request)));
+    }
+    final long start = selectProgramInstruments.latency.start();
+    final SelectProgramResponseType result;
+    try {
+      result = dataservices.get().selectProgramOperation(request);
+    } finally {
+      selectProgramInstruments.latency.stop(start);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Result: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectProgramResponse(result)));
+    }
     final ImmutableList<Program> programs =
         ImmutableList.copyOf(result.getData().getRoot().getProgram());
+    selectProgramInstruments.entities.add(programs.size());
     return programs;
   }
 
   public ImmutableList<Program> getPrograms(Set<String> programIds) throws StandardException {
-    final ImmutableList<Program> programs = getPrograms(toOrPredicate("programID", programIds));
-    return reorder(programIds, programs, Program::getProgramID);
+    return programsKept.select(programIds, remaining -> programsInFlight.select(remaining,
+        ids -> selectByIds("programID", ids, this::selectPrograms, Program::getProgramID)));
   }
 
   public Program getProgram(String programId) throws StandardException {
-    final String predicate = "programID = '" + programId + "'";
-    final List<Program> programs = getPrograms(predicate);
+    final List<Program> programs = getPrograms(ImmutableSet.of(programId));
     Verify.verify(programs.size() == 1);
     final Program program = Iterables.getOnlyElement(programs);
     Verify.verify(program.getProgramID().equals(programId));
@@ -123,15 +592,86 @@ public class Querier {
   }
 
   public ImmutableList<Course> getCourses(String predicate) throws StandardException {
+    return coursesKept.select(predicate, p -> coursesInFlight.select(p, this::selectCourses));
+  }
+
+  private static SelectCourseRequestType selectCourseRequest(String predicate) {
     final SelectCourseRequestType request = new SelectCourseRequestType();
     request.setBranch("pvRefRof");
     request.setInstance("RefRof");
     request.setPredicate(predicate);
-    LOGGER.debug("Request: {}.", helper.toXml(new ObjectFactory().createSelectCourse(request)));
-    final SelectCourseResponseType result = dataservices.selectCourseOperation(request);
-    LOGGER.debug("Result: {}.",
-        helper.toXml(new ObjectFactory().createSelectCourseResponse(result)));
-    return ImmutableList.copyOf(result.getData().getRoot().getCourse());
+    return request;
+  }
+
+  /**
+   * Hands each course matching the given predicate to the consumer as soon as it is read from
+   * the response, retaining none of them. When the exchanges are captured (see
+   * {@link WireCapture}), the response is read whole instead, so that it is recorded or replayed.
+   *
+   * @throws StandardException in case of SOAP fault
+   * @throws WebServiceException in case of transport error
+   */
+  public void forEachCourse(String predicate, Consumer<? super Course> consumer)
+      throws StandardException {
+    if (!streaming) {
+      selectCourses(predicate).forEach(consumer);
+      return;
+    }
+    stream("selectCourseOperation",
+        new ObjectFactory().createSelectCourse(selectCourseRequest(predicate)), Course.class,
+        selectCourseInstruments, consumer);
+  }
+
+  public int countCourses(String predicate) throws StandardException {
+    final CountCourseRequestType request = new CountCourseRequestType();
+    request.setBranch("pvRefRof");
+    request.setInstance("RefRof");
+    request.setPredicate(predicate);
+    final long start = countCourseInstruments.latency.start();
+    final CountCourseResponseType result;
+    try {
+      result = dataservices.get().countCourseOperation(request);
+    } finally {
+      countCourseInstruments.latency.stop(start);
+    }
+    return result.getCount().intValueExact();
+  }
+
+  /**
+   * Iterates over the courses matching the given predicate, {@code pageSize} (approximately) at a
+   * time, fetching the next page in the background. The pages are not kept in the cache, so that
+   * a scan does not evict the entities kept for other lookups.
+   *
+   * @param predicate may be empty, meaning all courses
+   * @return an iterator that throws {@link UncheckedStandardException} when a query fails
+   * @see Pager
+   */
+  public Iterator<Course> getCoursesPaged(String predicate, int pageSize) {
+    return new Pager<>(predicate, "courseID", pageSize, this::countCourses,
+        p -> coursesInFlight.select(p, this::selectCourses), executor);
+  }
+
+  private ImmutableList<Course> selectCourses(String predicate) throws StandardException {
+    final SelectCourseRequestType request = selectCourseRequest(predicate);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Request: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectCourse(request)));
+    }
+    final long start = selectCourseInstruments.latency.start();
+    final SelectCourseResponseType result;
+    try {
+      result = dataservices.get().selectCourseOperation(request);
+    } finally {
+      selectCourseInstruments.latency.stop(start);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Result: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectCourseResponse(result)));
+    }
+    final ImmutableList<Course> courses =
+        ImmutableList.copyOf(result.getData().getRoot().getCourse());
+    selectCourseInstruments.entities.add(courses.size());
+    return courses;
   }
 
   /**
@@ -140,17 +680,16 @@ public class Querier {
    * @throws StandardException
    */
   public ImmutableList<Course> getCourses(Set<String> courseIds) throws StandardException {
-    final ImmutableList<Course> courses = getCourses(toOrPredicate("courseID", courseIds));
     /*
-     * Re-ordering seems mandatory: I have observed that the service does not always return the
-     * courses in the order given in the predicate.
+     * Re-ordering (done by selectByIds) seems mandatory: I have observed that the service does not
+     * always return the courses in the order given in the predicate.
      */
-    return reorder(courseIds, courses, Course::getCourseID);
+    return coursesKept.select(courseIds, remaining -> coursesInFlight.select(remaining,
+        ids -> selectByIds("courseID", ids, this::selectCourses, Course::getCourseID)));
   }
 
   public Course getCourse(String courseId) throws StandardException {
-    final String predicate = "courseID = '" + courseId + "'";
-    final List<Course> courses = getCourses(predicate);
+    final List<Course> courses = getCourses(ImmutableSet.of(courseId));
     Verify.verify(courses.size() == 1);
     final Course course = Iterables.getOnlyElement(courses);
     Verify.verify(course.getCourseID().equals(courseId));
@@ -158,28 +697,117 @@ public class Querier {
   }
 
   public ImmutableList<Person> getPersons(String predicate) throws StandardException {
+    return personsKept.select(predicate, p -> personsInFlight.select(p, this::selectPersons));
+  }
+
+  private static SelectPersonRequestType selectPersonRequest(String predicate) {
     final SelectPersonRequestType request = new SelectPersonRequestType();
     request.setBranch("pvRefRof");
     request.setInstance("RefRof");
     request.setPredicate(predicate);
-    LOGGER.debug("Request: {}.", helper.toXml(new ObjectFactory().createSelectPerson(request)));
-    final SelectPersonResponseType result = dataservices.selectPersonOperation(request);
-    LOGGER.debug("Result: {}.",
-        helper.toXml(new ObjectFactory().createSelectPersonResponse(result)));
-    return ImmutableList.copyOf(result.getData().getRoot().getPerson());
+    return request;
+  }
+
+  /**
+   * Hands each person matching the given predicate to the consumer as soon as it is read from
+   * the response, retaining none of them. When the exchanges are captured (see
+   * {@link WireCapture}), the response is read whole instead, so that it is recorded or replayed.
+   *
+   * @throws StandardException in case of SOAP fault
+   * @throws WebServiceException in case of transport error
+   */
+  public void forEachPerson(String predicate, Consumer<? super Person> consumer)
+      throws StandardException {
+    if (!streaming) {
+      selectPersons(predicate).forEach(consumer);
+      return;
+    }
+    stream("selectPersonOperation",
+        new ObjectFactory().createSelectPerson(selectPersonRequest(predicate)), Person.class,
+        selectPersonInstruments, consumer);
+  }
+
+  public int countPersons(String predicate) throws StandardException {
+    final CountPersonRequestType request = new CountPersonRequestType();
+    request.setBranch("pvRefRof");
+    request.setInstance("RefRof");
+    request.setPredicate(predicate);
+    final long start = countPersonInstruments.latency.start();
+    final CountPersonResponseType result;
+    try {
+      result = dataservices.get().countPersonOperation(request);
+    } finally {
+      countPersonInstruments.latency.stop(start);
+    }
+    return result.getCount().intValueExact();
+  }
+
+  /**
+   * Iterates over the persons matching the given predicate, {@code pageSize} (approximately) at a
+   * time, fetching the next page in the background. The pages are not kept in the cache, so that
+   * a scan does not evict the entities kept for other lookups.
+   *
+   * @param predicate may be empty, meaning all persons
+   * @return an iterator that throws {@link UncheckedStandardException} when a query fails
+   * @see Pager
+   */
+  public Iterator<Person> getPersonsPaged(String predicate, int pageSize) {
+    return new Pager<>(predicate, "personID", pageSize, this::countPersons,
+        p -> personsInFlight.select(p, this::selectPersons), executor);
+  }
+
+  private ImmutableList<Person> selectPersons(String predicate) throws StandardException {
+    final SelectPersonRequestType request = selectPersonRequest(predicate);
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Request: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectPerson(request)));
+    }
+    final long start = selectPersonInstruments.latency.start();
+    final SelectPersonResponseType result;
+    try {
+      result = dataservices.get().selectPersonOperation(request);
+    } finally {
+      selectPersonInstruments.latency.stop(start);
+    }
+    if (LOGGER.isDebugEnabled()) {
+      LOGGER.debug("Result: {}.",
+          helper.get().toXml(new ObjectFactory().createSelectPersonResponse(result)));
+    }
+    final ImmutableList<Person> persons =
+        ImmutableList.copyOf(result.getData().getRoot().getPerson());
+    selectPersonInstruments.entities.add(persons.size());
+    return persons;
   }
 
   public ImmutableList<Person> getPersons(Set<String> personIds) throws StandardException {
-    final ImmutableList<Person> persons = getPersons(toOrPredicate("personID", personIds));
-    return reorder(personIds, persons, Person::getPersonID);
+    return personsKept.select(personIds, remaining -> personsInFlight.select(remaining,
+        ids -> selectByIds("personID", ids, this::selectPersons, Person::getPersonID)));
   }
 
   public Person getPerson(String personId) throws StandardException {
-    final String predicate = "personID = '" + personId + "'";
-    final List<Person> persons = getPersons(predicate);
+    final List<Person> persons = getPersons(ImmutableSet.of(personId));
     Verify.verify(persons.size() == 1);
     final Person person = Iterables.getOnlyElement(persons);
     Verify.verify(person.getPersonID().equals(personId));
     return person;
   }
+
+  /**
+   * @return per kind of entities, the statistics of the entities kept in memory
+   */
+  public ImmutableMap<EntityKind, CacheStats> getCacheStats() {
+    return ImmutableMap.of(EntityKind.MENTION, mentionsKept.getStats(), EntityKind.PROGRAM,
+        programsKept.getStats(), EntityKind.COURSE, coursesKept.getStats(), EntityKind.PERSON,
+        personsKept.getStats());
+  }
+
+  /**
+   * Forgets every entity kept in memory, so that the next lookups query the service.
+   */
+  public void invalidateCaches() {
+    mentionsKept.invalidateAll();
+    programsKept.invalidateAll();
+    coursesKept.invalidateAll();
+    personsKept.invalidateAll();
+  }
 }
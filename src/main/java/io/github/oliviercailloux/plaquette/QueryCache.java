@@ -0,0 +1,102 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import ebx.ebx_dataservices.StandardException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Keeps the results of the lookups of a given kind of entities for a while, in front of a
+ * {@link Coalescer}.
+ * <p>
+ * Results are kept by predicate, and each entity received, whatever the lookup, is also kept by
+ * id, so that a lookup by ids only requests the ids not kept. Entries expire a fixed time after
+ * being written. The entities kept by id are bounded in number, and the results kept by predicate
+ * in total number of entities; beyond, the least recently used entries are evicted (approximately:
+ * Guava evicts per segment of the cache). Ids not found are not kept.
+ * </p>
+ * <p>
+ * The entities kept are returned as is to every lookup that hits them, thus, callers must not
+ * modify them (the generated types are mutable, this is not checked).
+ * </p>
+ *
+ * @param <T> the kind of entities
+ */
+class QueryCache<T> {
+  private final Function<T, String> getId;
+  private final Cache<String, ImmutableList<T>> byPredicate;
+  private final Cache<String, T> byId;
+
+  /**
+   * @param maxEntities the bound of each of the two caches, zero to keep nothing
+   * @param ttl the time entries live, zero to keep nothing
+   */
+  QueryCache(Function<T, String> getId, long maxEntities, Duration ttl) {
+    checkArgument(maxEntities >= 0);
+    checkArgument(!ttl.isNegative());
+    this.getId = getId;
+    byPredicate = CacheBuilder.newBuilder().maximumWeight(maxEntities)
+        .<String, ImmutableList<T>>weigher((p, l) -> 1 + l.size()).expireAfterWrite(ttl)
+        .recordStats().build();
+    byId = CacheBuilder.newBuilder().maximumSize(maxEntities).expireAfterWrite(ttl).recordStats()
+        .build();
+  }
+
+  ImmutableList<T> select(String predicate, Coalescer.PredicateQuery<T> query)
+      throws StandardException {
+    final ImmutableList<T> kept = byPredicate.getIfPresent(predicate);
+    if (kept != null) {
+      return kept;
+    }
+    final ImmutableList<T> selected = query.select(predicate);
+    byPredicate.put(predicate, selected);
+    selected.forEach(t -> byId.put(getId.apply(t), t));
+    return selected;
+  }
+
+  /**
+   * @return the entities found (a subset of those searched for), in the same ordering.
+   */
+  ImmutableList<T> select(Set<String> ids, Coalescer.IdsQuery<T> query) throws StandardException {
+    final ImmutableMap<String, T> kept = byId.getAllPresent(ids);
+    if (kept.size() == ids.size()) {
+      return ids.stream().map(kept::get).collect(ImmutableList.toImmutableList());
+    }
+    final ImmutableSet<String> remaining = Sets.difference(ids, kept.keySet()).immutableCopy();
+    final Map<String, T> found = new LinkedHashMap<>(kept);
+    for (T selected : query.select(remaining)) {
+      final String id = getId.apply(selected);
+      byId.put(id, selected);
+      found.put(id, selected);
+    }
+    return ids.stream().filter(found::containsKey).map(found::get)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * @return the statistics of both caches, added together
+   */
+  CacheStats getStats() {
+    return byPredicate.stats().plus(byId.stats());
+  }
+
+  long size() {
+    return byPredicate.size() + byId.size();
+  }
+
+  void invalidateAll() {
+    byPredicate.invalidateAll();
+    byId.invalidateAll();
+  }
+}
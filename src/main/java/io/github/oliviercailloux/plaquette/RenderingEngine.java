@@ -0,0 +1,148 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.asciidoctor.Asciidoctor;
+import org.asciidoctor.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts AsciiDoc documents to DocBook and then to PDF, keeping the costly parts (the JRuby
+ * runtime behind Asciidoctor, the DocBook validator, the PDF transformer) alive from one document
+ * to the next.
+ * <p>
+ * Asciidoctor is started only when a first AsciiDoc document is converted, thus, never when all
+ * documents are written directly in DocBook.
+ * </p>
+ * <p>
+ * The validation of a DocBook document runs alongside its transformation to PDF, both reading the
+ * same document; the PDF is written to a temporary file, which replaces the target file only once
+ * the document is found valid.
+ * </p>
+ * <p>
+ * Safe for use by several threads. The AsciiDoc conversions, validations (see
+ * {@link DocBookValidator}) and PDF transformations (see {@link PdfPipeline}) run concurrently.
+ * </p>
+ */
+public class RenderingEngine implements AutoCloseable {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(RenderingEngine.class);
+
+  public static RenderingEngine create() {
+    return new RenderingEngine(DocBookValidator.fromSystemProperties(),
+        PdfPipeline.usingDefaults());
+  }
+
+  private final Supplier<Asciidoctor> asciidoctor;
+  private boolean asciidoctorCreated;
+  private final DocBookValidator validator;
+  private final PdfPipeline toPdf;
+  private final ExecutorService validations;
+  private final Metrics.Timer toDocBookTimer;
+  private final Metrics.Timer validateTimer;
+  private final Metrics.Timer toPdfTimer;
+
+  private RenderingEngine(DocBookValidator validator, PdfPipeline toPdf) {
+    this.asciidoctor = Suppliers.memoize(this::createAsciidoctor);
+    asciidoctorCreated = false;
+    this.validator = validator;
+    this.toPdf = toPdf;
+    validations = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("validation-%d").setDaemon(true).build());
+    final Metrics metrics = Metrics.get();
+    toDocBookTimer = metrics.timer("render_stage_seconds", "stage", "toDocBook");
+    validateTimer = metrics.timer("render_stage_seconds", "stage", "validate");
+    toPdfTimer = metrics.timer("render_stage_seconds", "stage", "toPdf");
+  }
+
+  private synchronized Asciidoctor createAsciidoctor() {
+    LOGGER.info("Creating Asciidoctor converter.");
+    final Asciidoctor created = Asciidoctor.Factory.create();
+    asciidoctorCreated = true;
+    return created;
+  }
+
+  /**
+   * Converts the given AsciiDoc document to DocBook, validates it, and writes it as PDF to the
+   * given file.
+   */
+  public void render(String adoc, Path pdf) {
+    renderDocBook(toDocBook(adoc), pdf);
+  }
+
+  /**
+   * Validates the given DocBook document and writes it as PDF to the given file, concurrently.
+   * Leaves the file untouched if the document is invalid or the transformation fails.
+   */
+  public void renderDocBook(String docBook, Path pdf) {
+    final Future<?> validation = validations.submit(() -> validate(docBook));
+    final Path absolute = pdf.toAbsolutePath();
+    try {
+      final Path temp = Files.createTempFile(absolute.getParent(),
+          absolute.getFileName().toString(), ".tmp");
+      try {
+        toPdf(docBook, temp);
+        Futures.getUnchecked(validation);
+        Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (UncheckedExecutionException e) {
+      Throwables.throwIfUnchecked(e.getCause());
+      throw e;
+    } finally {
+      validation.cancel(true);
+    }
+  }
+
+  public String toDocBook(String adoc) {
+    LOGGER.info("Converting to Docbook.");
+    final long start = toDocBookTimer.start();
+    final String docBook = asciidoctor.get().convert(adoc,
+        Options.builder().headerFooter(true).backend("docbook").build());
+    toDocBookTimer.stop(start);
+    return docBook;
+  }
+
+  public void validate(String docBook) {
+    LOGGER.info("Validating Docbook.");
+    LOGGER.debug("Docbook: {}.", docBook);
+    final long start = validateTimer.start();
+    validator.validate(docBook);
+    validateTimer.stop(start);
+  }
+
+  public void toPdf(String docBook, Path pdf) {
+    LOGGER.info("Writing {}.", pdf);
+    final long start = toPdfTimer.start();
+    toPdf.toPdf(docBook, pdf);
+    toPdfTimer.stop(start);
+  }
+
+  @Override
+  public synchronized void close() {
+    LOGGER.info("Validated {} documents in {}, skipped {}.", validator.getValidatedCount(),
+        validator.getValidationTime(), validator.getSkippedCount());
+    validations.shutdownNow();
+    toPdf.close();
+    if (asciidoctorCreated) {
+      asciidoctor.get().close();
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.VerifyException;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
+import ebx.ebx_dataservices.EbxDataservices;
+import ebx.ebx_dataservices.StandardException;
+import io.github.oliviercailloux.jaris.exceptions.Unchecker;
+import jakarta.jws.WebMethod;
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+import jakarta.xml.ws.WebServiceException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import schemas.ebx.dataservices_1.CountCourseRequestType;
+
+/**
+ * Sends select requests to the data services and parses the responses as they arrive, handing
+ * each entity over as soon as it is read, instead of letting JAX-WS build the whole response.
+ * <p>
+ * Speaks SOAP 1.1 over HTTP, authenticating through the default {@link java.net.Authenticator}, as
+ * the JAX-WS port does. The SOAP action of each operation is read from the annotations of
+ * {@link EbxDataservices}. Faults are thrown as the port throws them, as {@link StandardException}.
+ * The sizes of the envelopes are counted as for the ports (see {@link Transport}).
+ * </p>
+ */
+class SoapStreamer {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(SoapStreamer.class);
+
+  private static final String SOAP_NS = "http://schemas.xmlsoap.org/soap/envelope/";
+
+  private static final Supplier<JAXBContext> CONTEXT =
+      Suppliers.memoize(() -> Unchecker.wrappingWith(VerifyException::new)
+          .getUsing(() -> JAXBContext.newInstance(CountCourseRequestType.class.getPackageName())));
+
+  private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newFactory();
+
+  private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+  private final Transport transport;
+  private final URL endpoint;
+
+  SoapStreamer(Transport transport) {
+    this.transport = transport;
+    endpoint = transport.getEndpoint();
+  }
+
+  /**
+   * @param operation the name of the operation in {@link EbxDataservices}, such as
+   *        {@code selectCourseOperation}
+   * @param request the request, as created by the object factory
+   * @param entityType the type of the elements that the response lists under its {@code root}
+   *        element
+   * @throws StandardException if the service answers with a fault
+   * @throws WebServiceException in case of transport error or unexpected response
+   */
+  <T> void select(String operation, JAXBElement<?> request, Class<T> entityType,
+      Consumer<? super T> consumer) throws StandardException {
+    try {
+      final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+      final WebMethod webMethod = getWebMethod(operation, request);
+      final String action = webMethod == null ? "" : webMethod.action();
+      final String wsdlOperation = webMethod == null || webMethod.operationName().isEmpty()
+          ? operation
+          : webMethod.operationName();
+      connection.setRequestProperty("SOAPAction", "\"" + action + "\"");
+      transport.configure(connection);
+      final OutputStream rawOut = connection.getOutputStream();
+      final CountingOutputStream sent = new CountingOutputStream(
+          transport.compressesRequests() ? new GZIPOutputStream(rawOut) : rawOut);
+      try (OutputStream out = new BufferedOutputStream(sent)) {
+        writeEnvelope(request, out);
+      }
+      Transport.countBytes(wsdlOperation, true, sent.getCount());
+      final int code = connection.getResponseCode();
+      final InputStream rawIn =
+          code >= 400 ? connection.getErrorStream() : connection.getInputStream();
+      if (rawIn == null) {
+        throw new WebServiceException("No content in the response, with HTTP code " + code + ".");
+      }
+      final CountingInputStream received = new CountingInputStream(
+          Transport.isCompressed(connection) ? new GZIPInputStream(rawIn) : rawIn);
+      try (InputStream in = new BufferedInputStream(received)) {
+        final XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+          readEntities(reader, entityType, consumer);
+        } finally {
+          reader.close();
+        }
+        /* Reading to the end lets the connection return to the keep-alive cache. */
+        in.transferTo(OutputStream.nullOutputStream());
+      } finally {
+        Transport.countBytes(wsdlOperation, false, received.getCount());
+      }
+    } catch (IOException | XMLStreamException | JAXBException | NoSuchMethodException e) {
+      throw new WebServiceException(e);
+    }
+  }
+
+  /**
+   * @return the annotation that gives the SOAP action and the name in the WSDL of the operation,
+   *         {@code null} if there is none
+   */
+  private static WebMethod getWebMethod(String operation, JAXBElement<?> request)
+      throws NoSuchMethodException {
+    final Method method = EbxDataservices.class.getMethod(operation, request.getDeclaredType());
+    return method.getAnnotation(WebMethod.class);
+  }
+
+  private static void writeEnvelope(JAXBElement<?> request, OutputStream out)
+      throws XMLStreamException, JAXBException {
+    final XMLStreamWriter writer =
+        OUTPUT_FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+    writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+    writer.writeStartElement("soapenv", "Envelope", SOAP_NS);
+    writer.writeNamespace("soapenv", SOAP_NS);
+    writer.writeStartElement("soapenv", "Body", SOAP_NS);
+    final Marshaller marshaller = CONTEXT.get().createMarshaller();
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+    marshaller.marshal(request, writer);
+    writer.writeEndElement();
+    writer.writeEndElement();
+    writer.writeEndDocument();
+    writer.close();
+  }
+
+  private static <T> void readEntities(XMLStreamReader reader, Class<T> entityType,
+      Consumer<? super T> consumer) throws XMLStreamException, JAXBException, StandardException {
+    while (reader.hasNext()) {
+      final int event = reader.next();
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      final String name = reader.getLocalName();
+      if (name.equals("Fault") && SOAP_NS.equals(reader.getNamespaceURI())) {
+        throw readFault(reader);
+      }
+      if (name.equals("root")) {
+        final Unmarshaller unmarshaller = CONTEXT.get().createUnmarshaller();
+        reader.nextTag();
+        while (reader.isStartElement()) {
+          consumer.accept(unmarshaller.unmarshal(reader, entityType).getValue());
+          while (!reader.isStartElement() && !reader.isEndElement()) {
+            reader.next();
+          }
+        }
+        return;
+      }
+    }
+    throw new WebServiceException("No root element in the response.");
+  }
+
+  /**
+   * Reads the fault that the reader is at the start of, with its detail, if any, of the type that
+   * {@link StandardException#getFaultInfo()} declares (JAX-WS generates fault exceptions with a
+   * constructor from a message and such a detail).
+   */
+  private static StandardException readFault(XMLStreamReader reader)
+      throws XMLStreamException, JAXBException {
+    final Class<?> faultInfoType;
+    final Constructor<StandardException> constructor;
+    try {
+      faultInfoType = StandardException.class.getMethod("getFaultInfo").getReturnType();
+      constructor = StandardException.class.getConstructor(String.class, faultInfoType);
+    } catch (NoSuchMethodException e) {
+      throw new VerifyException(e);
+    }
+    String message = "(no fault string)";
+    Object faultInfo = null;
+    while (reader.hasNext()) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Fault")) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      if (reader.getLocalName().equals("faultstring")) {
+        message = reader.getElementText();
+      } else if (reader.getLocalName().equals("detail")
+          && reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+        faultInfo = CONTEXT.get().createUnmarshaller().unmarshal(reader, faultInfoType).getValue();
+      }
+    }
+    try {
+      return constructor.newInstance(message, faultInfo);
+    } catch (ReflectiveOperationException e) {
+      throw new VerifyException(e);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.VerifyException;
+import ebx.ebx_dataservices.StandardException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Waits for futures whose tasks query the service, rethrowing the failures these tasks may raise
+ * as they were raised.
+ */
+class StandardFutures {
+  static <T> T get(Future<T> future) throws StandardException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while querying.", e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      Throwables.throwIfInstanceOf(cause, StandardException.class);
+      Throwables.throwIfUnchecked(cause);
+      throw new VerifyException(cause);
+    }
+  }
+
+  private StandardFutures() {
+  }
+}
@@ -0,0 +1,358 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.base.Suppliers;
+import com.google.common.base.VerifyException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingOutputStream;
+import ebx.ebx_dataservices.EbxDataservices;
+import ebx.ebx_dataservices.EbxDataservicesService;
+import jakarta.xml.soap.SOAPException;
+import jakarta.xml.ws.BindingProvider;
+import jakarta.xml.ws.WebServiceException;
+import jakarta.xml.ws.handler.Handler;
+import jakarta.xml.ws.handler.MessageContext;
+import jakarta.xml.ws.handler.soap.SOAPHandler;
+import jakarta.xml.ws.handler.soap.SOAPMessageContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.xml.namespace.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * How the data services are reached: a pool of ports, persistent connections, timeouts and
+ * compression.
+ * <p>
+ * JAX-WS ports are not guaranteed to be thread-safe, thus {@link #pooled()} creates several ports,
+ * all configured up front, and lends one to each call for its duration; calls beyond the pool size
+ * wait for a port to come back, which also bounds the number of concurrent requests to the
+ * service. All ports share one service, thus the WSDL is read once per transport. Connections are
+ * kept alive by the JDK HTTP client, which caches up to {@code http.maxConnections} idle
+ * connections per destination: unless that system property is set, it is raised to the pool size
+ * when the transport is created. The JDK reads that property only once, when it opens its first
+ * HTTP connection in the process; a process that connects to anything before should set it on the
+ * command line instead. Responses are requested in gzip form; requests are sent in gzip form only
+ * if asked for, as not every server accepts them.
+ * </p>
+ * <p>
+ * When metrics are enabled, the sizes of the SOAP envelopes sent and received (before compression)
+ * are counted per operation of the WSDL. For the ports, this goes through a SOAP handler, which
+ * makes JAX-WS build each message as a SAAJ tree, thus, costs some time.
+ * </p>
+ */
+public class Transport {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(Transport.class);
+
+  public static final int DEFAULT_PORTS = Querier.DEFAULT_PARALLELISM * 2;
+
+  public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofMinutes(2);
+
+  /**
+   * The request context properties of the JAX-WS reference implementation.
+   */
+  private static final String CONNECT_TIMEOUT_PROPERTY = "com.sun.xml.ws.connect.timeout";
+  private static final String REQUEST_TIMEOUT_PROPERTY = "com.sun.xml.ws.request.timeout";
+
+  private static final String GZIP = "gzip";
+
+  /**
+   * The WSDL of the data services, with the schemas it refers to, as bundled in the jar.
+   */
+  static final String BUNDLED_WSDL = "/wsdl/RefRof.wsdl";
+
+  /**
+   * Counts the sizes of the envelopes that a port sends and receives, faults included.
+   */
+  private static class EnvelopeCounter implements SOAPHandler<SOAPMessageContext> {
+    @Override
+    public boolean handleMessage(SOAPMessageContext context) {
+      final CountingOutputStream counter =
+          new CountingOutputStream(OutputStream.nullOutputStream());
+      try {
+        context.getMessage().writeTo(counter);
+      } catch (SOAPException | IOException e) {
+        throw new WebServiceException(e);
+      }
+      final QName operation = (QName) context.get(MessageContext.WSDL_OPERATION);
+      countBytes(operation == null ? "unknown" : operation.getLocalPart(),
+          (Boolean) context.get(MessageContext.MESSAGE_OUTBOUND_PROPERTY), counter.getCount());
+      return true;
+    }
+
+    @Override
+    public boolean handleFault(SOAPMessageContext context) {
+      return handleMessage(context);
+    }
+
+    @Override
+    public void close(MessageContext context) {
+      /* Nothing to release. */
+    }
+
+    @Override
+    public Set<QName> getHeaders() {
+      return ImmutableSet.of();
+    }
+  }
+
+  /**
+   * @param operation the name of the operation in the WSDL
+   * @param sent {@code true} for a request, {@code false} for a response
+   */
+  static void countBytes(String operation, boolean sent, long bytes) {
+    Metrics.get().counter(sent ? "transport_request_bytes_total" : "transport_response_bytes_total",
+        "operation", operation).add(bytes);
+  }
+
+  public static class Builder {
+    private int ports;
+    private Duration connectTimeout;
+    private Duration requestTimeout;
+    private boolean compressRequests;
+    private Optional<URL> endpoint;
+
+    private Builder() {
+      ports = DEFAULT_PORTS;
+      connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+      requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+      compressRequests = false;
+      endpoint = Optional.empty();
+    }
+
+    /**
+     * @param endpoint the address of the data services, replacing the one given in the WSDL
+     */
+    public Builder endpoint(URL endpoint) {
+      this.endpoint = Optional.of(endpoint);
+      return this;
+    }
+
+    /**
+     * @param ports the number of ports in the pool, at least one
+     */
+    public Builder ports(int ports) {
+      checkArgument(ports >= 1);
+      this.ports = ports;
+      return this;
+    }
+
+    /**
+     * @param connectTimeout positive
+     * @param requestTimeout the maximal time waiting for a response, positive
+     */
+    public Builder timeouts(Duration connectTimeout, Duration requestTimeout) {
+      checkArgument(!connectTimeout.isNegative() && !connectTimeout.isZero());
+      checkArgument(!requestTimeout.isNegative() && !requestTimeout.isZero());
+      this.connectTimeout = connectTimeout;
+      this.requestTimeout = requestTimeout;
+      return this;
+    }
+
+    public Builder compressRequests(boolean compressRequests) {
+      this.compressRequests = compressRequests;
+      return this;
+    }
+
+    public Transport build() {
+      return new Transport(this);
+    }
+  }
+
+  /**
+   * Reads the system properties {@code plaquette.transport.ports},
+   * {@code plaquette.transport.connectTimeout} and {@code plaquette.transport.requestTimeout}
+   * (ISO-8601 durations), {@code plaquette.transport.compressRequests} (defaults to false) and
+   * {@code plaquette.endpoint} (defaults to the address given in the WSDL).
+   */
+  public static Transport fromSystemProperties() {
+    final String connectTimeout = System.getProperty("plaquette.transport.connectTimeout");
+    final String requestTimeout = System.getProperty("plaquette.transport.requestTimeout");
+    final String endpoint = System.getProperty("plaquette.endpoint");
+    final Builder builder = builder()
+        .ports(Integer.getInteger("plaquette.transport.ports", DEFAULT_PORTS))
+        .timeouts(
+            connectTimeout == null ? DEFAULT_CONNECT_TIMEOUT : Duration.parse(connectTimeout),
+            requestTimeout == null ? DEFAULT_REQUEST_TIMEOUT : Duration.parse(requestTimeout))
+        .compressRequests(Boolean.getBoolean("plaquette.transport.compressRequests"));
+    if (endpoint != null) {
+      builder.endpoint(toUrl(endpoint));
+    }
+    return builder.build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final int ports;
+  private final Duration connectTimeout;
+  private final Duration requestTimeout;
+  private final boolean compressRequests;
+  private final Optional<URL> configuredEndpoint;
+  /**
+   * Shared by all the ports created by this transport, as creating a service reads the WSDL.
+   */
+  private final Supplier<EbxDataservicesService> service;
+  private final Supplier<URL> endpoint;
+
+  private Transport(Builder builder) {
+    ports = builder.ports;
+    connectTimeout = builder.connectTimeout;
+    requestTimeout = builder.requestTimeout;
+    compressRequests = builder.compressRequests;
+    configuredEndpoint = builder.endpoint;
+    keepConnectionsAlive(ports);
+    service = Suppliers.memoize(Transport::newService);
+    endpoint = Suppliers.memoize(() -> configuredEndpoint.orElseGet(() -> getAddress(newPort())));
+  }
+
+  /**
+   * Reads the bundled WSDL if there is one, so that creating ports needs no network access;
+   * otherwise, the generated service reads the WSDL it was generated from.
+   */
+  private static EbxDataservicesService newService() {
+    final URL bundled = Transport.class.getResource(BUNDLED_WSDL);
+    if (bundled == null) {
+      LOGGER.debug("No bundled WSDL, using the one the service was generated from.");
+      return new EbxDataservicesService();
+    }
+    return new EbxDataservicesService(bundled);
+  }
+
+  private static URL toUrl(String address) {
+    try {
+      return new URL(address);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static URL getAddress(EbxDataservices port) {
+    final String address = (String) ((BindingProvider) port).getRequestContext()
+        .get(BindingProvider.ENDPOINT_ADDRESS_PROPERTY);
+    try {
+      return new URL(address);
+    } catch (MalformedURLException e) {
+      throw new VerifyException(e);
+    }
+  }
+
+  private static void keepConnectionsAlive(int connections) {
+    if (System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", String.valueOf(connections));
+    }
+  }
+
+  public int getPorts() {
+    return ports;
+  }
+
+  public boolean compressesRequests() {
+    return compressRequests;
+  }
+
+  URL getEndpoint() {
+    return endpoint.get();
+  }
+
+  private ImmutableMap<String, List<String>> getHeaders() {
+    final ImmutableMap.Builder<String, List<String>> headers = ImmutableMap.builder();
+    headers.put("Accept-Encoding", ImmutableList.of(GZIP));
+    if (compressRequests) {
+      headers.put("Content-Encoding", ImmutableList.of(GZIP));
+    }
+    return headers.build();
+  }
+
+  private EbxDataservices newPort() {
+    final EbxDataservices port = service.get().getEbxDataservices();
+    final Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+    configuredEndpoint.ifPresent(
+        e -> context.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, e.toString()));
+    context.put(CONNECT_TIMEOUT_PROPERTY, Math.toIntExact(connectTimeout.toMillis()));
+    context.put(REQUEST_TIMEOUT_PROPERTY, Math.toIntExact(requestTimeout.toMillis()));
+    context.put(MessageContext.HTTP_REQUEST_HEADERS, getHeaders());
+    if (Metrics.get().isEnabled()) {
+      @SuppressWarnings("rawtypes")
+      final List<Handler> chain = ImmutableList.of(new EnvelopeCounter());
+      ((BindingProvider) port).getBinding().setHandlerChain(chain);
+    }
+    return port;
+  }
+
+  /**
+   * Applies the timeouts and compression headers of this transport to a connection to the
+   * endpoint, for the requests that do not go through a port.
+   */
+  void configure(HttpURLConnection connection) {
+    connection.setConnectTimeout(Math.toIntExact(connectTimeout.toMillis()));
+    connection.setReadTimeout(Math.toIntExact(requestTimeout.toMillis()));
+    getHeaders().forEach((name, values) -> connection.setRequestProperty(name, values.get(0)));
+  }
+
+  static boolean isCompressed(HttpURLConnection connection) {
+    final String encoding = connection.getContentEncoding();
+    return encoding != null && encoding.trim().equalsIgnoreCase(GZIP);
+  }
+
+  /**
+   * Creates the ports of a new pool and returns data services that run each call on one of them.
+   */
+  public EbxDataservices pooled() {
+    final ImmutableList<EbxDataservices> created = IntStream.range(0, ports)
+        .mapToObj(i -> newPort()).collect(ImmutableList.toImmutableList());
+    LOGGER.debug("Created {} ports to {}.", ports, getAddress(created.get(0)));
+    final BlockingQueue<EbxDataservices> idle = new ArrayBlockingQueue<>(ports, false, created);
+    final Metrics.Timer waiting = Metrics.get().timer("transport_port_wait_seconds");
+    return (EbxDataservices) Proxy.newProxyInstance(EbxDataservices.class.getClassLoader(),
+        new Class<?>[] {EbxDataservices.class}, (proxy, method, args) -> {
+          if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              default:
+                return "Pooled " + EbxDataservices.class.getSimpleName();
+            }
+          }
+          final long start = waiting.start();
+          final EbxDataservices port;
+          try {
+            port = idle.take();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebServiceException("Interrupted while waiting for a port.", e);
+          }
+          waiting.stop(start);
+          try {
+            return method.invoke(port, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          } finally {
+            idle.add(port);
+          }
+        });
+  }
+}
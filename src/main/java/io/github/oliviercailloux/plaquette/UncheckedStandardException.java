@@ -0,0 +1,19 @@
+package io.github.oliviercailloux.plaquette;
+
+import ebx.ebx_dataservices.StandardException;
+
+/**
+ * Wraps a {@link StandardException} where checked exceptions can’t be thrown, such as in iterators.
+ */
+public class UncheckedStandardException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public UncheckedStandardException(StandardException cause) {
+    super(cause);
+  }
+
+  @Override
+  public synchronized StandardException getCause() {
+    return (StandardException) super.getCause();
+  }
+}
@@ -0,0 +1,205 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import ebx.ebx_dataservices.EbxDataservices;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the exchanges with the data services, or replays recorded exchanges without using the
+ * network.
+ * <p>
+ * The capture file is a sequence of gzip members, one per exchange, so that recording needs no
+ * closing and a recording interrupted at any point remains readable. Each exchange consists in the
+ * operation name (as in {@code selectCourseOperation}), then the request and the response, each in
+ * XML form, prefixed by its length.
+ * </p>
+ * <p>
+ * When replaying, a request is answered with the last response recorded for an identical request
+ * to the same operation.
+ * </p>
+ */
+public class WireCapture {
+  @SuppressWarnings("unused")
+  private static final Logger LOGGER = LoggerFactory.getLogger(WireCapture.class);
+
+  public static enum Mode {
+    OFF, RECORD, REPLAY
+  }
+
+  private static final WireCapture OFF = new WireCapture(Mode.OFF, null);
+
+  public static WireCapture off() {
+    return OFF;
+  }
+
+  public static WireCapture recordingTo(Path file) {
+    return new WireCapture(Mode.RECORD, file);
+  }
+
+  public static WireCapture replayingFrom(Path file) {
+    return new WireCapture(Mode.REPLAY, file);
+  }
+
+  /**
+   * Reads the system properties {@code plaquette.capture} ({@code off}, the default,
+   * {@code record} or {@code replay}) and {@code plaquette.capture.file} (defaults to
+   * {@code capture.gz}).
+   */
+  public static WireCapture fromSystemProperties() {
+    final Mode mode = Mode.valueOf(
+        System.getProperty("plaquette.capture", Mode.OFF.toString()).toUpperCase(Locale.ROOT));
+    if (mode == Mode.OFF) {
+      return OFF;
+    }
+    return new WireCapture(mode,
+        Path.of(System.getProperty("plaquette.capture.file", "capture.gz")));
+  }
+
+  private static byte[] toBytes(Class<?> type, Object value) {
+    @SuppressWarnings("unchecked")
+    final Class<Object> objectType = (Class<Object>) type;
+    return EntityCodec.toBytes(objectType, value);
+  }
+
+  private static String key(String operation, byte[] request) {
+    return operation + " " + Hashing.sha256().hashBytes(request);
+  }
+
+  private final Mode mode;
+  private final Path file;
+  private final Supplier<ImmutableMap<String, byte[]>> recorded;
+
+  private WireCapture(Mode mode, Path file) {
+    this.mode = mode;
+    checkArgument((mode == Mode.OFF) == (file == null));
+    this.file = file;
+    recorded = Suppliers.memoize(this::readRecorded);
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  /**
+   * Returns the data services to use in this mode.
+   *
+   * @param network the real data services, obtained only if used in this mode
+   */
+  public EbxDataservices wrap(Supplier<EbxDataservices> network) {
+    switch (mode) {
+      case OFF:
+        return network.get();
+      case RECORD:
+        final EbxDataservices delegate = network.get();
+        return proxy((method, request) -> {
+          final Object response;
+          try {
+            response = method.invoke(delegate, request);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+          record(method, request, response);
+          return response;
+        });
+      case REPLAY:
+        return proxy(this::replay);
+      default:
+        throw new AssertionError(mode);
+    }
+  }
+
+  @FunctionalInterface
+  private static interface Exchange {
+    Object exchange(Method method, Object request) throws Throwable;
+  }
+
+  private static EbxDataservices proxy(Exchange exchange) {
+    return (EbxDataservices) Proxy.newProxyInstance(EbxDataservices.class.getClassLoader(),
+        new Class<?>[] {EbxDataservices.class}, (proxy, method, args) -> {
+          if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              default:
+                return "Captured " + EbxDataservices.class.getSimpleName();
+            }
+          }
+          checkArgument(args != null && args.length == 1, method);
+          return exchange.exchange(method, args[0]);
+        });
+  }
+
+  private synchronized void record(Method method, Object request, Object response) {
+    final byte[] requestBytes = toBytes(method.getParameterTypes()[0], request);
+    final byte[] responseBytes = toBytes(method.getReturnType(), response);
+    try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files
+        .newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+      out.writeUTF(method.getName());
+      out.writeInt(requestBytes.length);
+      out.write(requestBytes);
+      out.writeInt(responseBytes.length);
+      out.write(responseBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Object replay(Method method, Object request) {
+    final String key = key(method.getName(), toBytes(method.getParameterTypes()[0], request));
+    final byte[] response = recorded.get().get(key);
+    checkState(response != null, "No recorded response to %s.", key);
+    return EntityCodec.fromBytes(method.getReturnType(), response);
+  }
+
+  private ImmutableMap<String, byte[]> readRecorded() {
+    final Map<String, byte[]> responses = new HashMap<>();
+    try (InputStream raw = Files.newInputStream(file);
+        DataInputStream in =
+            new DataInputStream(new GZIPInputStream(new BufferedInputStream(raw)))) {
+      while (true) {
+        final String operation;
+        try {
+          operation = in.readUTF();
+        } catch (EOFException e) {
+          break;
+        }
+        final byte[] request = new byte[in.readInt()];
+        in.readFully(request);
+        final byte[] response = new byte[in.readInt()];
+        in.readFully(response);
+        responses.put(key(operation, request), response);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    LOGGER.info("Read {} recorded exchanges from {}.", responses.size(), file);
+    return ImmutableMap.copyOf(responses);
+  }
+}
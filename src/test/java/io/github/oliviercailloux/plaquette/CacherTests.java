@@ -0,0 +1,35 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+
+class CacherTests {
+  @Test
+  void testConcurrentAsSequential() throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(150);
+    final Querier querier = Querier.builder().capture(WireCapture.off()).cacheSize(0)
+        .chunking(7, Querier.DEFAULT_MAX_PREDICATE_LENGTH)
+        .dataservices(catalog.toDataservices()).build();
+    final ImmutableSet<String> roots = ImmutableSet.of(catalog.getRootProgramId());
+
+    final Cacher sequential = Cacher.cache(querier, roots);
+    final Cacher concurrent = Cacher.cacheConcurrently(querier, roots, 4);
+
+    assertEquals(catalog.getCourses().stream().map(Course::getCourseID)
+        .collect(ImmutableList.toImmutableList()), sequential.getCourses().keySet().asList());
+    assertEquals(sequential.getPrograms().keySet().asList(),
+        concurrent.getPrograms().keySet().asList());
+    assertEquals(sequential.getCourses().keySet().asList(),
+        concurrent.getCourses().keySet().asList());
+    assertEquals(sequential.getTeachers().keySet().asList(),
+        concurrent.getTeachers().keySet().asList());
+    for (String courseId : sequential.getCourses().keySet()) {
+      assertEquals(sequential.getCourseTeachers(courseId).keySet().asList(),
+          concurrent.getCourseTeachers(courseId).keySet().asList());
+    }
+  }
+}
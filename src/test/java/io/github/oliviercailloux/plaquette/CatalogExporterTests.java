@@ -0,0 +1,78 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.plaquette.CatalogExporter.Column;
+import io.github.oliviercailloux.plaquette.CatalogExporter.Format;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+
+class CatalogExporterTests {
+  @Test
+  void testJsonString() throws Exception {
+    assertEquals("\"Cours\"", CatalogExporter.toJsonString("Cours"));
+    assertEquals("\"Dit \\\"bonjour\\\"\\n\\\\ fin\"",
+        CatalogExporter.toJsonString("Dit \"bonjour\"\n\\ fin"));
+    assertEquals("\"\\u0001\"", CatalogExporter.toJsonString("\u0001"));
+  }
+
+  @Test
+  void testCsv(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(30);
+    final CatalogExporter exporter = new CatalogExporter(CatalogExporter.from(catalog.toCacher()),
+        ImmutableList.of(Column.ID, Column.ECTS), Format.CSV, 7);
+    final Path output = directory.resolve("out.csv");
+
+    assertEquals(30, exporter.exportPrograms(ImmutableSet.of(catalog.getRootProgramId()), output));
+
+    final ImmutableList.Builder<String> expected = ImmutableList.builder();
+    expected.add("ID,ECTS");
+    for (Course course : catalog.getCourses()) {
+      expected.add(course.getCourseID() + "," + course.getEcts().getValue());
+    }
+    assertEquals(expected.build(), Files.readAllLines(output));
+  }
+
+  @Test
+  void testJsonLinesWithoutGivenNames(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(30);
+    catalog.getTeachers().forEach(t -> t.setGivenName(null));
+    final ImmutableMap<String, Person> teachers = catalog.getTeachers().stream()
+        .collect(ImmutableMap.toImmutableMap(Person::getPersonID, t -> t));
+    final CatalogExporter exporter = new CatalogExporter(CatalogExporter.from(catalog.toCacher()),
+        ImmutableList.of(Column.ID, Column.TEACHERS), Format.JSON_LINES, 7);
+    final Path output = directory.resolve("out.jsonl");
+
+    exporter.exportPrograms(ImmutableSet.of(catalog.getRootProgramId()), output);
+
+    final ImmutableList.Builder<String> expected = ImmutableList.builder();
+    for (Course course : catalog.getCourses()) {
+      final String names = Cacher.getTeacherRefs(course).stream()
+          .map(id -> teachers.get(id).getFamilyName().getValue())
+          .collect(Collectors.joining("; "));
+      expected.add("{\"ID\": " + CatalogExporter.toJsonString(course.getCourseID())
+          + ", \"Teachers\": " + CatalogExporter.toJsonString(names) + "}");
+    }
+    final List<String> lines = Files.readAllLines(output);
+    assertEquals(expected.build(), lines);
+  }
+
+  @Test
+  void testMatchingNeedsQuerier(@TempDir Path directory) throws Exception {
+    final CatalogExporter exporter =
+        CatalogExporter.using(SyntheticCatalog.withCourses(5).toCacher(),
+            ImmutableList.of(Column.ID), Format.CSV);
+    assertThrows(UnsupportedOperationException.class,
+        () -> exporter.exportMatching("", directory.resolve("out.csv")));
+  }
+}
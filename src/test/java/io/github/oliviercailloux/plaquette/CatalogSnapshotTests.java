@@ -0,0 +1,99 @@
+package io.github.oliviercailloux.plaquette;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+
+class CatalogSnapshotTests {
+  /**
+   * The length of the header preceding the checksum: magic number, version and creation time.
+   */
+  private static final int PREFIX_LENGTH = Integer.BYTES * 2 + Long.BYTES;
+
+  private static final int HEADER_LENGTH = PREFIX_LENGTH + Long.BYTES + Integer.BYTES;
+
+  @Test
+  void testRoundTrip(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(50);
+    final Cacher cache = catalog.toCacher();
+    final ImmutableSet<String> programIds = ImmutableSet.of(catalog.getRootProgramId());
+    final CatalogSnapshot snapshot =
+        CatalogSnapshot.at(directory.resolve("snapshot"), Duration.ofHours(1), false);
+
+    snapshot.write(programIds, cache);
+    final Cacher read = snapshot.read(programIds).orElseThrow();
+
+    assertEquals(cache.getPrograms().keySet(), read.getPrograms().keySet());
+    assertEquals(cache.getCourses().keySet().asList(), read.getCourses().keySet().asList());
+    assertEquals(cache.getTeachers().keySet(), read.getTeachers().keySet());
+    for (Course course : cache.getCourses().values()) {
+      assertArrayEquals(EntityCodec.toBytes(Course.class, course),
+          EntityCodec.toBytes(Course.class, read.getCourses().get(course.getCourseID())));
+    }
+    assertTrue(snapshot.read(ImmutableSet.of("other")).isEmpty());
+  }
+
+  @Test
+  void testCorrupted(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(50);
+    final ImmutableSet<String> programIds = ImmutableSet.of(catalog.getRootProgramId());
+    final Path file = directory.resolve("snapshot");
+    final CatalogSnapshot snapshot = CatalogSnapshot.at(file, Duration.ofHours(1), false);
+    snapshot.write(programIds, catalog.toCacher());
+    final byte[] written = Files.readAllBytes(file);
+
+    final byte[] flipped = written.clone();
+    flipped[HEADER_LENGTH + 10] ^= 0xFF;
+    Files.write(file, flipped);
+    assertTrue(snapshot.read(programIds).isEmpty());
+
+    /* A payload that is not deflated data, with a matching checksum. */
+    final byte[] garbage = new byte[100];
+    garbage[0] = 42;
+    Files.write(file, withPayload(written, garbage));
+    assertTrue(snapshot.read(programIds).isEmpty());
+
+    /* Deflated data that does not hold entities, with a matching checksum. */
+    Files.write(file, withPayload(written, deflatedWithInvalidProgram(catalog.getRootProgramId())));
+    assertTrue(snapshot.read(programIds).isEmpty());
+  }
+
+  private static byte[] deflatedWithInvalidProgram(String programId) throws IOException {
+    final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(payload))) {
+      out.writeInt(1);
+      out.writeUTF(programId);
+      final byte[] invalid = "<entity>".getBytes(UTF_8);
+      out.writeInt(1);
+      out.writeInt(invalid.length);
+      out.write(invalid);
+    }
+    return payload.toByteArray();
+  }
+
+  private static byte[] withPayload(byte[] snapshot, byte[] payload) {
+    final CRC32 crc = new CRC32();
+    crc.update(payload);
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+    buffer.put(snapshot, 0, PREFIX_LENGTH);
+    buffer.putLong(crc.getValue());
+    buffer.putInt(payload.length);
+    buffer.put(payload);
+    return buffer.array();
+  }
+}
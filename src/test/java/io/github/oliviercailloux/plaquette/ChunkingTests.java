@@ -0,0 +1,44 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.jupiter.api.Test;
+
+class ChunkingTests {
+  @Test
+  void testNoIds() throws Exception {
+    assertEquals(ImmutableList.of(),
+        Querier.toOrPredicates("personID", ImmutableSet.of(), 10, 100));
+  }
+
+  @Test
+  void testOneChunk() throws Exception {
+    assertEquals(ImmutableList.of("personID = 'a' or personID = 'b'"),
+        Querier.toOrPredicates("personID", ImmutableSet.of("a", "b"), 10, 100));
+  }
+
+  @Test
+  void testBoundedByCount() throws Exception {
+    assertEquals(
+        ImmutableList.of("personID = 'a' or personID = 'b'", "personID = 'c' or personID = 'd'",
+            "personID = 'e'"),
+        Querier.toOrPredicates("personID", ImmutableSet.of("a", "b", "c", "d", "e"), 2, 100));
+  }
+
+  @Test
+  void testBoundedByLength() throws Exception {
+    /* Each term is 14 bytes long, two joined terms are 32 bytes long. */
+    assertEquals(ImmutableList.of("personID = 'a' or personID = 'b'", "personID = 'c'"),
+        Querier.toOrPredicates("personID", ImmutableSet.of("a", "b", "c"), 10, 32));
+    assertEquals(ImmutableList.of("personID = 'a'", "personID = 'b'", "personID = 'c'"),
+        Querier.toOrPredicates("personID", ImmutableSet.of("a", "b", "c"), 10, 31));
+  }
+
+  @Test
+  void testTooLongAlone() throws Exception {
+    assertEquals(ImmutableList.of("personID = 'a'", "personID = 'b'"),
+        Querier.toOrPredicates("personID", ImmutableSet.of("a", "b"), 10, 5));
+  }
+}
@@ -0,0 +1,64 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class CoalescerTests {
+  @Test
+  void testSharesIdsInFlight() throws Exception {
+    final Coalescer<String> coalescer = new Coalescer<>(Function.identity());
+    final List<Set<String>> requested = new CopyOnWriteArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Future<ImmutableList<String>> first =
+          executor.submit(() -> coalescer.select(ImmutableSet.of("a", "b"), ids -> {
+            requested.add(ids);
+            started.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return ImmutableList.copyOf(ids);
+          }));
+      started.await();
+      final Future<ImmutableList<String>> second =
+          executor.submit(() -> coalescer.select(ImmutableSet.of("b", "c"), ids -> {
+            requested.add(ids);
+            return ImmutableList.copyOf(ids);
+          }));
+      while (requested.size() < 2) {
+        Thread.sleep(1);
+      }
+      release.countDown();
+      assertEquals(ImmutableList.of("a", "b"), first.get());
+      assertEquals(ImmutableList.of("b", "c"), second.get());
+      assertEquals(ImmutableList.of(ImmutableSet.of("a", "b"), ImmutableSet.of("c")), requested);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testForgetsCompleted() throws Exception {
+    final Coalescer<String> coalescer = new Coalescer<>(Function.identity());
+    final List<Set<String>> requested = new CopyOnWriteArrayList<>();
+    final Coalescer.IdsQuery<String> query = ids -> {
+      requested.add(ids);
+      return ImmutableList.of();
+    };
+    assertEquals(ImmutableList.of(), coalescer.select(ImmutableSet.of("a"), query));
+    assertEquals(ImmutableList.of(), coalescer.select(ImmutableSet.of("a"), query));
+    assertEquals(2, requested.size());
+  }
+}
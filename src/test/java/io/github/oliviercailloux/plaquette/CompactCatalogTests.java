@@ -0,0 +1,37 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableSet;
+import io.github.oliviercailloux.plaquette.CompactCatalog.CompactPerson;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+
+class CompactCatalogTests {
+  @Test
+  void testFetchAsConverted() throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(150);
+    final Person teacher = catalog.getTeachers().get(0);
+    teacher.setGivenName(null);
+    final Querier querier = Querier.builder().capture(WireCapture.off()).cacheSize(0)
+        .dataservices(catalog.toDataservices()).build();
+    final ImmutableSet<String> roots = ImmutableSet.of(catalog.getRootProgramId());
+
+    final CompactCatalog fetched = CompactCatalog.fetch(querier, roots, 7);
+    final CompactCatalog converted = CompactCatalog.of(Cacher.cache(querier, roots));
+
+    assertEquals(converted.getPrograms().keySet().asList(),
+        fetched.getPrograms().keySet().asList());
+    assertEquals(converted.getPrograms(), fetched.getPrograms());
+    assertEquals(converted.getCourses().keySet().asList(),
+        fetched.getCourses().keySet().asList());
+    assertEquals(converted.getCourses(), fetched.getCourses());
+    assertEquals(converted.getTeachers().keySet().asList(),
+        fetched.getTeachers().keySet().asList());
+    assertEquals(converted.getTeachers(), fetched.getTeachers());
+    final CompactPerson compact = fetched.getTeacher(teacher.getPersonID());
+    assertEquals(Optional.empty(), compact.givenName());
+    assertEquals(Optional.of(teacher.getFamilyName().getValue()), compact.familyName());
+  }
+}
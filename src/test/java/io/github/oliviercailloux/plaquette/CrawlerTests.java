@@ -0,0 +1,114 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import io.github.oliviercailloux.plaquette.CrawlCheckpoint.Frontier;
+import io.github.oliviercailloux.plaquette.CrawlCheckpoint.Kind;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+
+class CrawlerTests {
+  private static Person person(String id) {
+    final Person person = new Person();
+    person.setPersonID(id);
+    return person;
+  }
+
+  @Test
+  void testBackoff() throws Exception {
+    final Duration initial = Duration.ofMillis(100);
+    final Duration max = Duration.ofSeconds(1);
+    for (int retry = 1; retry <= 70; ++retry) {
+      final long bound = Math.min(100L << Math.min(retry - 1, 20), 1000L);
+      final long delay = Crawler.backoff(retry, initial, max).toMillis();
+      assertTrue(bound / 2 <= delay && delay <= bound, retry + ": " + delay);
+    }
+  }
+
+  @Test
+  void testCheckpointResumes(@TempDir Path directory) throws Exception {
+    final Frontier frontier = new Frontier(ImmutableSet.of("ROOT"),
+        ImmutableSetMultimap.of(Kind.TEACHER, "P3"), ImmutableSetMultimap.of(Kind.COURSE, "C9"));
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(Optional.empty(), checkpoint.getFrontier());
+      checkpoint.appendTeachers(ImmutableList.of(person("P1"), person("P2")));
+      checkpoint.writeFrontier(frontier);
+    }
+    /* A record cut short by a crash. */
+    Files.write(directory.resolve(CrawlCheckpoint.LOG_FILE), new byte[] {2, 0, 0, 1},
+        StandardOpenOption.APPEND);
+
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(ImmutableList.of("P1", "P2"), checkpoint.getTeachers().keySet().asList());
+      assertEquals(Optional.of(frontier), checkpoint.getFrontier());
+      checkpoint.appendTeachers(ImmutableList.of(person("P3")));
+    }
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(ImmutableList.of("P1", "P2", "P3"),
+          checkpoint.getTeachers().keySet().asList());
+    }
+  }
+
+  @Test
+  void testGarbledTailDropped(@TempDir Path directory) throws Exception {
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      checkpoint.appendTeachers(ImmutableList.of(person("P1"), person("P2")));
+    }
+    final Path log = directory.resolve(CrawlCheckpoint.LOG_FILE);
+    final byte[] written = Files.readAllBytes(log);
+    /* A copy of the first record, garbled, then zeroes, as a crash may leave. */
+    final int recordLength = Integer.BYTES + ByteBuffer.wrap(written).getInt() + Long.BYTES;
+    final byte[] garbled = Arrays.copyOfRange(written, 0, recordLength);
+    garbled[Integer.BYTES + 1] ^= 0x20;
+    Files.write(log, garbled, StandardOpenOption.APPEND);
+    Files.write(log, new byte[100], StandardOpenOption.APPEND);
+
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(ImmutableList.of("P1", "P2"), checkpoint.getTeachers().keySet().asList());
+    }
+    assertEquals(written.length, Files.size(log));
+
+    /* A zero-filled tail alone. */
+    Files.write(log, new byte[100], StandardOpenOption.APPEND);
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(ImmutableList.of("P1", "P2"), checkpoint.getTeachers().keySet().asList());
+    }
+    assertEquals(written.length, Files.size(log));
+  }
+
+  @Test
+  void testMissingRetried(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(30);
+    final String courseId = catalog.getCourses().get(0).getCourseID();
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      checkpoint.writeFrontier(new Frontier(ImmutableSet.of(catalog.getRootProgramId()),
+          ImmutableSetMultimap.of(),
+          ImmutableSetMultimap.of(Kind.COURSE, courseId, Kind.TEACHER, "NOPE")));
+    }
+    final Querier querier = Querier.builder().capture(WireCapture.off()).cacheSize(0)
+        .dataservices(catalog.toDataservices()).build();
+    final Crawler crawler = Crawler.builder(querier).checkpointDirectory(directory)
+        .limits(1000d, 2).build();
+
+    final Cacher cache = crawler.crawl(ImmutableSet.of());
+
+    assertEquals(30, cache.getCourses().size());
+    assertTrue(cache.getCourses().containsKey(courseId));
+    try (CrawlCheckpoint checkpoint = CrawlCheckpoint.open(directory)) {
+      assertEquals(ImmutableSetMultimap.of(Kind.TEACHER, "NOPE"),
+          checkpoint.getFrontier().orElseThrow().missing());
+    }
+  }
+}
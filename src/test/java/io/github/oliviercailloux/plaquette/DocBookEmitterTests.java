@@ -0,0 +1,74 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import com.google.common.collect.ImmutableList;
+import io.github.oliviercailloux.publish.DocBookConformityChecker;
+import java.io.StringReader;
+import javax.xml.transform.stream.StreamSource;
+import org.junit.jupiter.api.Test;
+
+class DocBookEmitterTests {
+  private static void verifyValid(String docBook) {
+    DocBookConformityChecker.usingDefaults()
+        .verifyValid(new StreamSource(new StringReader(docBook)));
+  }
+
+  private static void writeCourse(DocumentEmitter writer, String name) {
+    writer.heading(3, name);
+    writer.paragraph("3 ECTS");
+    writer.htmlSection("Contenu", "<p>Du <strong>contenu</strong>.</p><ul><li>Un</li></ul>");
+    writer.htmlSection("Références", "<p> </p>");
+  }
+
+  private static void writeStart(DocumentEmitter writer) {
+    writer.title("Programme");
+    writer.paragraphWithLink("Voir le ", "https://dauphine.psl.eu/", "site", ".");
+    writer.heading(2, "Vue d’ensemble");
+    writer.table("6, 1", ImmutableList.of("Cours", "ECTS"),
+        ImmutableList.of(ImmutableList.of("Java", "3"), ImmutableList.of("Web", "")));
+    writer.heading(2, "Semestre 1");
+  }
+
+  @Test
+  void testDocumentValid() throws Exception {
+    final DocBookEmitter writer = DocBookEmitter.create();
+    writeStart(writer);
+    writeCourse(writer, "Java");
+    writeCourse(writer, "Web");
+    writer.heading(2, "Semestre 2");
+    writeCourse(writer, "Réseaux");
+    final String docBook = writer.getContent();
+    verifyValid(docBook);
+    assertFalse(docBook.contains("Références"));
+  }
+
+  @Test
+  void testFragmentsClosedAsDirect() throws Exception {
+    final DocBookEmitter direct = DocBookEmitter.create();
+    writeStart(direct);
+    writeCourse(direct, "Java");
+    writeCourse(direct, "Web");
+    direct.heading(2, "Semestre 2");
+    writeCourse(direct, "Réseaux");
+    final String expected = direct.getContent();
+
+    final DocBookEmitter assembled = DocBookEmitter.create();
+    writeStart(assembled);
+    for (String name : ImmutableList.of("Java", "Web")) {
+      final DocumentEmitter fragment = assembled.newFragment();
+      writeCourse(fragment, name);
+      assembled.append(fragment.getContent());
+    }
+    assembled.heading(2, "Semestre 2");
+    final DocumentEmitter fragment = assembled.newFragment();
+    writeCourse(fragment, "Réseaux");
+    assembled.append(fragment.getContent());
+    final String docBook = assembled.getContent();
+
+    verifyValid(docBook);
+    assertEquals(expected,
+        docBook.replace("<section xmlns=\"" + DocBookEmitter.DOCBOOK_NS + "\">", "<section>"));
+  }
+}
@@ -0,0 +1,51 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+class DocBookValidatorTests {
+  private final AtomicInteger compiled = new AtomicInteger();
+  private final List<String> checked = new CopyOnWriteArrayList<>();
+
+  private final Supplier<Consumer<String>> factory = () -> {
+    compiled.incrementAndGet();
+    return docBook -> {
+      if (docBook.contains("invalid")) {
+        throw new IllegalArgumentException(docBook);
+      }
+      checked.add(docBook);
+    };
+  };
+
+  @Test
+  void testAlwaysReusesChecker() throws Exception {
+    final DocBookValidator validator =
+        new DocBookValidator(factory, DocBookValidator.Mode.ALWAYS, 1);
+    assertTrue(validator.validate("a"));
+    assertTrue(validator.validate("a"));
+    assertThrows(IllegalArgumentException.class, () -> validator.validate("invalid"));
+    assertTrue(validator.validate("b"));
+    assertEquals(List.of("a", "a", "b"), checked);
+    assertEquals(1, compiled.get());
+    assertEquals(3, validator.getValidatedCount());
+  }
+
+  @Test
+  void testSampling() throws Exception {
+    final DocBookValidator validator =
+        new DocBookValidator(factory, DocBookValidator.Mode.SAMPLING, 3);
+    for (int i = 0; i < 7; ++i) {
+      validator.validate(String.valueOf(i));
+    }
+    assertEquals(List.of("0", "3", "6"), checked);
+    assertEquals(4, validator.getSkippedCount());
+  }
+}
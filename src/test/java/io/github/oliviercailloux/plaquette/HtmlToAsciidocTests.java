@@ -0,0 +1,40 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class HtmlToAsciidocTests {
+  @Test
+  void testParagraphs() throws Exception {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    assertEquals("\n\nFirst\n\n*Second*",
+        converter.convert("<p>First</p><p><strong>Second</strong></p>"));
+  }
+
+  @Test
+  void testItems() throws Exception {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    assertEquals("\n\n- One\n- Two and three",
+        converter.convert("<ul><li>One</li><li>Two <strong>and</strong>\n three</li></ul>"));
+  }
+
+  @Test
+  void testMemo() throws Exception {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    final String first = converter.convert("<p>Same</p>");
+    final String second = converter.convert("<p>Same</p>");
+    assertEquals(first, second);
+    assertEquals(1, converter.size());
+    converter.convert("<p>Other</p>");
+    assertEquals(2, converter.size());
+  }
+
+  @Test
+  void testUnknownElement() throws Exception {
+    final HtmlToAsciidoc converter = HtmlToAsciidoc.create();
+    assertThrows(IllegalArgumentException.class, () -> converter.convert("<table></table>"));
+    assertEquals(0, converter.size());
+  }
+}
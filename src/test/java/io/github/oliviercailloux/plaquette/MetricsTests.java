@@ -0,0 +1,50 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class MetricsTests {
+  @Test
+  void testDisabled() throws Exception {
+    final Metrics metrics = new Metrics(null);
+    assertFalse(metrics.isEnabled());
+    final Metrics.Timer timer = metrics.timer("t", "op", "a");
+    assertEquals(0, timer.start());
+    timer.record(1);
+    metrics.counter("c").increment();
+    assertEquals("", metrics.toPrometheus());
+  }
+
+  @Test
+  void testPrometheus() throws Exception {
+    final Metrics metrics = new Metrics("unused");
+    final Metrics.Timer timer = metrics.timer("t_seconds", "op", "a");
+    timer.record(TimeUnit.MILLISECONDS.toNanos(20));
+    timer.record(TimeUnit.SECONDS.toNanos(60));
+    metrics.counter("c_total", "op", "a").add(3);
+    metrics.gauge("g").set(7);
+    final String text = metrics.toPrometheus();
+    assertTrue(text.contains("# TYPE t_seconds histogram\n"), text);
+    assertTrue(text.contains("t_seconds_bucket{op=\"a\",le=\"0.01\"} 0\n"), text);
+    assertTrue(text.contains("t_seconds_bucket{op=\"a\",le=\"0.025\"} 1\n"), text);
+    assertTrue(text.contains("t_seconds_bucket{op=\"a\",le=\"30.0\"} 1\n"), text);
+    assertTrue(text.contains("t_seconds_bucket{op=\"a\",le=\"+Inf\"} 2\n"), text);
+    assertTrue(text.contains("t_seconds_sum{op=\"a\"} 60.020000\n"), text);
+    assertTrue(text.contains("t_seconds_count{op=\"a\"} 2\n"), text);
+    assertTrue(text.contains("c_total{op=\"a\"} 3\n"), text);
+    assertTrue(text.contains("g 7\n"), text);
+  }
+
+  @Test
+  void testSameInstrument() throws Exception {
+    final Metrics metrics = new Metrics("unused");
+    metrics.counter("c", "op", "a").increment();
+    metrics.counter("c", "op", "a").increment();
+    assertTrue(metrics.toJson().contains(
+        "{\"name\": \"c\", \"labels\": {\"op\": \"a\"}, \"value\": 2}"), metrics.toJson());
+  }
+}
@@ -0,0 +1,97 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Streams;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+class PagerTests {
+  private static final Pattern CLAUSE =
+      Pattern.compile("starts-with\\(id, '([^']*)'\\)|id = '([^']*)'");
+
+  /**
+   * Interprets the disjunctions of clauses that the pager sends.
+   */
+  private static Predicate<String> matcher(String predicate) {
+    final ImmutableList.Builder<Predicate<String>> clauses = ImmutableList.builder();
+    final Matcher matcher = CLAUSE.matcher(predicate);
+    while (matcher.find()) {
+      final String prefix = matcher.group(1);
+      final String exact = matcher.group(2);
+      clauses.add(prefix != null ? id -> id.startsWith(prefix) : id -> id.equals(exact));
+    }
+    final ImmutableList<Predicate<String>> built = clauses.build();
+    return id -> built.stream().anyMatch(c -> c.test(id));
+  }
+
+  private static ImmutableSet<String> randomIds(String characters, int count) {
+    final Random random = new Random(0);
+    final ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+    for (int i = 0; i < count; ++i) {
+      final StringBuilder id = new StringBuilder("FR");
+      final int length = 1 + random.nextInt(4);
+      for (int j = 0; j < length; ++j) {
+        id.append(characters.charAt(random.nextInt(characters.length())));
+      }
+      ids.add(id.toString());
+    }
+    return ids.build();
+  }
+
+  private static void assertPagesAll(ImmutableSet<String> ids, int pageSize, int maxPageSize) {
+    final List<Integer> pageSizes = new CopyOnWriteArrayList<>();
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Pager<String> pager = new Pager<>("", "id", pageSize,
+          p -> (int) ids.stream().filter(matcher(p)).count(), p -> {
+            final ImmutableList<String> page =
+                ids.stream().filter(matcher(p)).collect(ImmutableList.toImmutableList());
+            pageSizes.add(page.size());
+            return page;
+          }, executor);
+      final ImmutableMultiset<String> iterated =
+          Streams.stream(pager).collect(ImmutableMultiset.toImmutableMultiset());
+      assertEquals(ImmutableMultiset.copyOf(ids), iterated);
+      assertTrue(pageSizes.stream().allMatch(s -> s <= maxPageSize), pageSizes.toString());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testPages() throws Exception {
+    assertPagesAll(randomIds("AB12-", 500), 20, 20);
+  }
+
+  @Test
+  void testSmall() throws Exception {
+    assertPagesAll(randomIds("AB12-", 10), 20, 20);
+  }
+
+  @Test
+  void testNone() throws Exception {
+    assertPagesAll(ImmutableSet.of(), 20, 0);
+  }
+
+  @Test
+  void testLowercase() throws Exception {
+    assertPagesAll(randomIds("ab.1", 100), 20, 20);
+  }
+
+  @Test
+  void testUnexpectedCharacters() throws Exception {
+    assertPagesAll(randomIds("#$", 100), 20, 100);
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ProgramDocumentTests {
+  private static String write(Cacher cache, String rootId, String backend, boolean parallel) {
+    final DocumentEmitter writer = M1AltBuilder.newEmitter(backend);
+    ProgramDocument.of(cache, rootId, parallel).write(writer);
+    return writer.getContent();
+  }
+
+  private static void assertParallelAsSequential(String backend) {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(200);
+    final Cacher cache = catalog.toCacher();
+    final String sequential = write(cache, catalog.getRootProgramId(), backend, false);
+    final String parallel = write(cache, catalog.getRootProgramId(), backend, true);
+    assertEquals(sequential, parallel);
+  }
+
+  @Test
+  void testParallelAsSequentialAsciidoc() throws Exception {
+    assertParallelAsSequential("asciidoc");
+  }
+
+  @Test
+  void testParallelAsSequentialDocBook() throws Exception {
+    assertParallelAsSequential("docbook");
+  }
+}
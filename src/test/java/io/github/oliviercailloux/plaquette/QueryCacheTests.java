@@ -0,0 +1,45 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+
+class QueryCacheTests {
+  private final List<Set<String>> requested = new CopyOnWriteArrayList<>();
+
+  private ImmutableList<String> selectExisting(Set<String> ids) {
+    requested.add(ImmutableSet.copyOf(ids));
+    return ids.stream().filter(id -> !id.startsWith("missing"))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  @Test
+  void testIdsFromPredicate() throws Exception {
+    final QueryCache<String> cache = new QueryCache<>(s -> s, 100, Duration.ofMinutes(1));
+    assertEquals(ImmutableList.of("a", "b"), cache.select("p", p -> ImmutableList.of("a", "b")));
+    assertEquals(ImmutableList.of("a", "b"), cache.select("p", p -> ImmutableList.of()));
+    assertEquals(ImmutableList.of("b", "c", "a"),
+        cache.select(ImmutableSet.of("b", "c", "missing", "a"), this::selectExisting));
+    assertEquals(ImmutableList.of(ImmutableSet.of("c", "missing")), requested);
+    assertEquals(ImmutableList.of("c"), cache.select(ImmutableSet.of("c"), this::selectExisting));
+    assertEquals(1, requested.size());
+    assertEquals(4, cache.getStats().hitCount());
+    assertEquals(3, cache.getStats().missCount());
+  }
+
+  @Test
+  void testDisabled() throws Exception {
+    final QueryCache<String> cache = new QueryCache<>(s -> s, 0, Duration.ofMinutes(1));
+    cache.select(ImmutableSet.of("a", "b"), this::selectExisting);
+    cache.select(ImmutableSet.of("b", "a"), this::selectExisting);
+    assertEquals(ImmutableList.of(ImmutableSet.of("a", "b"), ImmutableSet.of("b", "a")),
+        requested);
+    assertEquals(0, cache.size());
+  }
+}
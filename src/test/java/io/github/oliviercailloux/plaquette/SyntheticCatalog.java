@@ -0,0 +1,233 @@
+package io.github.oliviercailloux.plaquette;
+
+import static com.google.common.base.Verify.verify;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import ebx.ebx_dataservices.EbxDataservices;
+import jakarta.xml.bind.annotation.XmlNsForm;
+import jakarta.xml.bind.annotation.XmlSchema;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import schemas.ebx.dataservices_1.CourseType;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.PersonType;
+import schemas.ebx.dataservices_1.PersonType.Root.Person;
+import schemas.ebx.dataservices_1.ProgramType;
+import schemas.ebx.dataservices_1.ProgramType.Root.Program;
+import schemas.ebx.dataservices_1.SelectCourseRequestType;
+import schemas.ebx.dataservices_1.SelectCourseResponseType;
+import schemas.ebx.dataservices_1.SelectPersonRequestType;
+import schemas.ebx.dataservices_1.SelectPersonResponseType;
+import schemas.ebx.dataservices_1.SelectProgramRequestType;
+import schemas.ebx.dataservices_1.SelectProgramResponseType;
+
+/**
+ * A deterministic catalog of a given number of courses, shaped like the real one: programs, each
+ * with two semesters of twenty courses at most, all gathered under a root program; courses with
+ * one or two teachers among one per five courses, and texts shared by ten courses each on average.
+ * <p>
+ * Entities are built from their XML form, as the service sends them.
+ * </p>
+ */
+class SyntheticCatalog {
+  private static final int COURSES_PER_PROGRAM = 20;
+
+  /**
+   * The namespace of the elements within entities, empty if unqualified.
+   */
+  private static final String NAMESPACE;
+  static {
+    final XmlSchema schema = Course.class.getPackage().getAnnotation(XmlSchema.class);
+    NAMESPACE = schema != null && schema.elementFormDefault() == XmlNsForm.QUALIFIED
+        ? schema.namespace()
+        : "";
+  }
+
+  private static final String PREFIX = NAMESPACE.isEmpty() ? "" : "d:";
+
+  private static final Pattern QUOTED = Pattern.compile("'([^']*)'");
+
+  public static SyntheticCatalog withCourses(int courseCount) {
+    return new SyntheticCatalog(courseCount);
+  }
+
+  private static String element(String name, String content) {
+    return "<" + PREFIX + name + ">" + content + "</" + PREFIX + name + ">";
+  }
+
+  private static String text(String content) {
+    return content.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private static <T> T entity(Class<T> type, String content) {
+    final String declaration = NAMESPACE.isEmpty() ? "" : " xmlns:d=\"" + NAMESPACE + "\"";
+    final String xml = "<entity" + declaration + ">" + content + "</entity>";
+    return EntityCodec.fromBytes(type, xml.getBytes(UTF_8));
+  }
+
+  private final ImmutableSet<Program> programs;
+  private final ImmutableList<Course> courses;
+  private final ImmutableList<Person> teachers;
+  private final String rootProgramId;
+
+  private SyntheticCatalog(int courseCount) {
+    final Random random = new Random(0);
+    final int teacherCount = Math.max(1, courseCount / 5);
+    final ImmutableList.Builder<Person> teachersBuilder = ImmutableList.builder();
+    for (int i = 0; i < teacherCount; ++i) {
+      teachersBuilder.add(entity(Person.class,
+          element("personID", "P" + i) + element("givenName", SyntheticTexts.sentence(random, 1))
+              + element("familyName", SyntheticTexts.sentence(random, 1) + i)));
+    }
+    teachers = teachersBuilder.build();
+
+    final ImmutableList<String> texts =
+        SyntheticTexts.texts(courseCount, Math.max(1, courseCount / 10));
+    final ImmutableList.Builder<Course> coursesBuilder = ImmutableList.builder();
+    for (int i = 0; i < courseCount; ++i) {
+      final StringBuilder refPersons = new StringBuilder();
+      refPersons.append(element("refPerson", "P" + random.nextInt(teacherCount)));
+      if (random.nextInt(4) == 0) {
+        refPersons.append(element("refPerson", "P" + random.nextInt(teacherCount)));
+      }
+      final String html = text(texts.get(i));
+      coursesBuilder.add(entity(Course.class, element("courseID", "C" + i)
+          + element("courseName", element("fr", SyntheticTexts.sentence(random, 3) + " " + i))
+          + element("ects", String.valueOf(1 + random.nextInt(6)))
+          + element("volume", String.valueOf(12 + 3 * random.nextInt(10)))
+          + element("teachingLang", random.nextInt(5) == 0 ? "en" : "fr")
+          + element("contacts", refPersons.toString())
+          + element("learningObjectives", element("fr", html))
+          + element("courseDescription", element("fr", html))
+          + element("formOfAssessment", element("fr", html))));
+    }
+    courses = coursesBuilder.build();
+    verify(courses.get(0).getCourseName() != null,
+        "Synthetic entities do not match the schema, check the namespace %s.", NAMESPACE);
+
+    final ImmutableList.Builder<Program> subProgramsBuilder = ImmutableList.builder();
+    final ImmutableList.Builder<String> subProgramIds = ImmutableList.builder();
+    for (int start = 0, p = 0; start < courseCount; start += COURSES_PER_PROGRAM, ++p) {
+      final int end = Math.min(courseCount, start + COURSES_PER_PROGRAM);
+      final int middle = (start + end) / 2;
+      final String id = "PR" + p;
+      subProgramsBuilder.add(program(id, "Programme " + p,
+          ImmutableList.of(id + "-S1", id + "-S2"), ImmutableList.of()));
+      subProgramsBuilder.add(program(id + "-S1", "Semestre 1", ImmutableList.of(),
+          courseIds(start, middle)));
+      subProgramsBuilder.add(program(id + "-S2", "Semestre 2", ImmutableList.of(),
+          courseIds(middle, end)));
+      subProgramIds.add(id);
+    }
+    rootProgramId = "ROOT";
+    programs = ImmutableSet.<Program>builder()
+        .add(program(rootProgramId, "Catalogue", subProgramIds.build(), ImmutableList.of()))
+        .addAll(subProgramsBuilder.build()).build();
+  }
+
+  private static ImmutableList<String> courseIds(int start, int end) {
+    final ImmutableList.Builder<String> ids = ImmutableList.builder();
+    for (int i = start; i < end; ++i) {
+      ids.add("C" + i);
+    }
+    return ids.build();
+  }
+
+  private static Program program(String id, String name, List<String> subPrograms,
+      List<String> courseIds) {
+    final StringBuilder structure = new StringBuilder();
+    subPrograms.forEach(s -> structure.append(element("refProgram", s)));
+    courseIds.forEach(c -> structure.append(element("refCourse", c)));
+    return entity(Program.class,
+        element("programID", id) + element("programName", element("fr", name))
+            + element("refMention", "M0") + element("programStructure", structure.toString()));
+  }
+
+  public ImmutableSet<Program> getPrograms() {
+    return programs;
+  }
+
+  public ImmutableList<Course> getCourses() {
+    return courses;
+  }
+
+  public ImmutableList<Person> getTeachers() {
+    return teachers;
+  }
+
+  public String getRootProgramId() {
+    return rootProgramId;
+  }
+
+  /**
+   * Returns the entities whose ids appear, quoted, in the given predicate, in the order of the
+   * catalog; thus, evaluates the disjunctions of equalities that the querier sends.
+   */
+  private static <T> ImmutableList<T> matching(Collection<T> entities, Function<T, String> getId,
+      String predicate) {
+    final ImmutableSet<String> ids = QUOTED.matcher(predicate).results().map(r -> r.group(1))
+        .collect(ImmutableSet.toImmutableSet());
+    return entities.stream().filter(e -> ids.contains(getId.apply(e)))
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  /**
+   * Returns data services that answer the selections of programs, courses and persons by ids from
+   * this catalog, without network access.
+   */
+  public EbxDataservices toDataservices() {
+    return (EbxDataservices) Proxy.newProxyInstance(EbxDataservices.class.getClassLoader(),
+        new Class<?>[] {EbxDataservices.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "equals":
+              return proxy == args[0];
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "toString":
+              return "Synthetic " + EbxDataservices.class.getSimpleName();
+            case "selectProgramOperation": {
+              final ProgramType.Root root = new ProgramType.Root();
+              root.getProgram().addAll(matching(programs, Program::getProgramID,
+                  ((SelectProgramRequestType) args[0]).getPredicate()));
+              final ProgramType data = new ProgramType();
+              data.setRoot(root);
+              final SelectProgramResponseType response = new SelectProgramResponseType();
+              response.setData(data);
+              return response;
+            }
+            case "selectCourseOperation": {
+              final CourseType.Root root = new CourseType.Root();
+              root.getCourse().addAll(matching(courses, Course::getCourseID,
+                  ((SelectCourseRequestType) args[0]).getPredicate()));
+              final CourseType data = new CourseType();
+              data.setRoot(root);
+              final SelectCourseResponseType response = new SelectCourseResponseType();
+              response.setData(data);
+              return response;
+            }
+            case "selectPersonOperation": {
+              final PersonType.Root root = new PersonType.Root();
+              root.getPerson().addAll(matching(teachers, Person::getPersonID,
+                  ((SelectPersonRequestType) args[0]).getPredicate()));
+              final PersonType data = new PersonType();
+              data.setRoot(root);
+              final SelectPersonResponseType response = new SelectPersonResponseType();
+              response.setData(data);
+              return response;
+            }
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  public Cacher toCacher() {
+    return Cacher.of(programs, courses, teachers);
+  }
+}
@@ -0,0 +1,63 @@
+package io.github.oliviercailloux.plaquette;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Random;
+
+/**
+ * Generates HTML course texts shaped like those of the catalog: paragraphs, strong parts, line
+ * breaks and lists, some of whose items contain markup.
+ */
+class SyntheticTexts {
+  private static final ImmutableList<String> WORDS = ImmutableList.of("algorithmique", "données",
+      "programmation", "réseaux", "projet", "examen", "contrôle", "continu", "Java", "SQL",
+      "modélisation", "système", "architecture", "logiciel", "qualité", "test");
+
+  /**
+   * Returns a deterministic list of {@code count} texts, among which {@code distinct} distinct
+   * ones.
+   */
+  static ImmutableList<String> texts(int count, int distinct) {
+    final ImmutableList.Builder<String> distinctTexts = ImmutableList.builder();
+    final Random random = new Random(0);
+    for (int i = 0; i < distinct; ++i) {
+      distinctTexts.add(text(random, i));
+    }
+    final ImmutableList<String> pool = distinctTexts.build();
+    final ImmutableList.Builder<String> builder = ImmutableList.builder();
+    for (int i = 0; i < count; ++i) {
+      builder.add(pool.get(i % pool.size()));
+    }
+    return builder.build();
+  }
+
+  static String text(Random random, int index) {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("\n<p>").append(sentence(random, 12)).append(" ").append(index)
+        .append("</p>\n");
+    builder.append("<p><strong>").append(sentence(random, 3)).append("</strong> : ")
+        .append(sentence(random, 8)).append("<br/>").append(sentence(random, 6)).append("</p>\n");
+    builder.append("<ul>\n");
+    for (int i = 0; i < 4; ++i) {
+      builder.append("<li>").append(sentence(random, 5)).append("</li>\n");
+    }
+    builder.append("<li>").append(sentence(random, 3)).append(" <strong>")
+        .append(sentence(random, 2)).append("</strong> ").append(sentence(random, 3))
+        .append("</li>\n");
+    builder.append("</ul>");
+    return builder.toString();
+  }
+
+  static String sentence(Random random, int words) {
+    final StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < words; ++i) {
+      if (i != 0) {
+        builder.append(' ');
+      }
+      builder.append(WORDS.get(random.nextInt(WORDS.size())));
+    }
+    return builder.toString();
+  }
+
+  private SyntheticTexts() {
+  }
+}
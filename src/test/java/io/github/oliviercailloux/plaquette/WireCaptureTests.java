@@ -0,0 +1,51 @@
+package io.github.oliviercailloux.plaquette;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import ebx.ebx_dataservices.EbxDataservices;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import schemas.ebx.dataservices_1.CourseType.Root.Course;
+import schemas.ebx.dataservices_1.SelectCourseRequestType;
+import schemas.ebx.dataservices_1.SelectCourseResponseType;
+
+class WireCaptureTests {
+  private static SelectCourseRequestType request(String predicate) {
+    final SelectCourseRequestType request = new SelectCourseRequestType();
+    request.setBranch("pvRefRof");
+    request.setInstance("RefRof");
+    request.setPredicate(predicate);
+    return request;
+  }
+
+  private static ImmutableList<String> ids(SelectCourseResponseType response) {
+    return response.getData().getRoot().getCourse().stream().map(Course::getCourseID)
+        .collect(ImmutableList.toImmutableList());
+  }
+
+  @Test
+  void testRecordThenReplay(@TempDir Path directory) throws Exception {
+    final SyntheticCatalog catalog = SyntheticCatalog.withCourses(10);
+    final Path file = directory.resolve("capture.gz");
+    final String first = "courseID = 'C1' or courseID = 'C3'";
+    final String second = "courseID = 'C5'";
+    final EbxDataservices recording = WireCapture.recordingTo(file).wrap(catalog::toDataservices);
+    assertEquals(ImmutableList.of("C1", "C3"),
+        ids(recording.selectCourseOperation(request(first))));
+    /* A second recorder appends to the same file. */
+    final EbxDataservices appending = WireCapture.recordingTo(file).wrap(catalog::toDataservices);
+    assertEquals(ImmutableList.of("C5"), ids(appending.selectCourseOperation(request(second))));
+
+    final EbxDataservices replaying = WireCapture.replayingFrom(file).wrap(() -> {
+      throw new AssertionError("Replaying must not reach the network.");
+    });
+    assertEquals(ImmutableList.of("C1", "C3"),
+        ids(replaying.selectCourseOperation(request(first))));
+    assertEquals(ImmutableList.of("C5"), ids(replaying.selectCourseOperation(request(second))));
+    assertThrows(IllegalStateException.class,
+        () -> replaying.selectCourseOperation(request("courseID = 'C2'")));
+  }
+}